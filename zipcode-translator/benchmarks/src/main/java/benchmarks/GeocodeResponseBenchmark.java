@@ -0,0 +1,110 @@
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * XML parsing of geocoder responses, as returned by the Google Maps geocoding API: the streaming
+ * GeocodeResponseParser against the DOM and XPath parse it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeocodeResponseBenchmark {
+
+	private static final byte[] FOUND = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<GeocodeResponse>\n"
+			+ " <status>OK</status>\n <result>\n  <type>route</type>\n"
+			+ "  <formatted_address>Strada Egalitatii, Pitesti, Romania</formatted_address>\n"
+			+ "  <address_component>\n   <long_name>Strada Egalitatii</long_name>\n"
+			+ "   <short_name>Strada Egalitatii</short_name>\n   <type>route</type>\n  </address_component>\n"
+			+ "  <address_component>\n   <long_name>Pitesti</long_name>\n   <short_name>Pitesti</short_name>\n"
+			+ "   <type>locality</type>\n   <type>political</type>\n  </address_component>\n"
+			+ "  <address_component>\n   <long_name>Arges</long_name>\n   <short_name>AG</short_name>\n"
+			+ "   <type>administrative_area_level_1</type>\n   <type>political</type>\n  </address_component>\n"
+			+ "  <geometry>\n   <location>\n    <lat>44.8564798</lat>\n    <lng>24.8691824</lng>\n   </location>\n"
+			+ "   <location_type>GEOMETRIC_CENTER</location_type>\n"
+			+ "   <viewport>\n    <southwest>\n     <lat>44.8551308</lat>\n     <lng>24.8678334</lng>\n    </southwest>\n"
+			+ "    <northeast>\n     <lat>44.8578288</lat>\n     <lng>24.8705314</lng>\n    </northeast>\n   </viewport>\n"
+			+ "  </geometry>\n </result>\n</GeocodeResponse>\n").getBytes(StandardCharsets.UTF_8);
+
+	private static final byte[] ZERO_RESULTS = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<GeocodeResponse>\n"
+			+ " <status>ZERO_RESULTS</status>\n</GeocodeResponse>\n").getBytes(StandardCharsets.UTF_8);
+
+
+	@Benchmark
+	public Object parseFound() throws Throwable {
+		return Translator.PARSE_GEOCODE_RESPONSE.invoke(new ByteArrayInputStream(FOUND), "Strada Egalitatii Pitesti");
+	}
+
+	@Benchmark
+	public Object parseZeroResults() throws Throwable {
+		return Translator.PARSE_GEOCODE_RESPONSE.invoke(new ByteArrayInputStream(ZERO_RESULTS), "Nowhere Arges");
+	}
+
+	/**
+	 * Baseline: the whole response built into a DOM and queried with XPath, factories included,
+	 * the way Main.geocode did before GeocodeResponseParser.
+	 */
+	@Benchmark
+	public Object domXPathFound() throws Exception {
+		return domXPath(FOUND);
+	}
+
+	@Benchmark
+	public Object domXPathZeroResults() throws Exception {
+		return domXPath(ZERO_RESULTS);
+	}
+
+	/**
+	 * @return the status, followed by the coordinates of the first result if it's OK
+	 */
+	private static String[] domXPath(byte[] response) throws Exception {
+		Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new ByteArrayInputStream(response));
+		XPath xpath = XPathFactory.newInstance().newXPath();
+
+		NodeList nodes = (NodeList) xpath.evaluate("/GeocodeResponse/status", document, XPathConstants.NODESET);
+		if (nodes.getLength() == 0) {
+			return null;
+		}
+		final String status = nodes.item(0).getTextContent();
+		if (!status.equals("OK")) {
+			return new String[]{status};
+		}
+
+		String[] found = {status, null, null};
+		nodes = (NodeList) xpath.evaluate("/GeocodeResponse/result[1]/geometry/location/*", document,
+				XPathConstants.NODESET);
+		for (int i = 0; i < nodes.getLength(); i++) {
+			Node node = nodes.item(i);
+			if (node.getNodeName().equals("lat")) {
+				found[1] = node.getTextContent();
+			} else if (node.getNodeName().equals("lng")) {
+				found[2] = node.getTextContent();
+			}
+		}
+		return found;
+	}
+}
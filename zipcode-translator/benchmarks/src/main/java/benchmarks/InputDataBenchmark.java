@@ -0,0 +1,185 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resuming a run over a large synthetic input file: opening the ProgressJournal, then reading
+ * the ZIP codes still to be processed through InputData.getZipCodes().
+ * <p>
+ * The input holds distinct ZIP codes in random order, mixes the separators the scanner accepts
+ * and has one invalid token in a hundred. Unless the progress is empty, 80% of the ZIP codes
+ * have a result and 10% are invalid, so 10% are left to be returned. The progress is either:
+ * <ul>
+ * <li>empty: an empty journal, so every ZIP code is returned
+ * <li>snapshot: a snapshot of the processed ZIP codes, the usual resume
+ * <li>results: no journal yet, so results.txt and invalids.txt are imported, the first resume
+ * after upgrading from a version without the journal
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InputDataBenchmark {
+
+	private static final String[] SEPARATORS = {"\n", "\r\n", ", ", " ", ";", "\t"};
+
+	private static final String[] RESULT_FILES = {"results", "invalids", "errors"};
+
+	@Param({"100000", "1000000"})
+	public int zipCodes;
+
+	@Param({"empty", "snapshot", "results"})
+	public String progress;
+
+	private File directory;
+
+	private File input;
+
+	private File journal;
+
+	private File snapshot;
+
+	/**
+	 * Result files of the ResultWriter before they were pointed at the benchmark directory.
+	 */
+	private final Object[] resultFiles = new Object[RESULT_FILES.length];
+
+
+	@Setup(Level.Trial)
+	public void setUp() throws Throwable {
+		directory = File.createTempFile("input-data-benchmark", "");
+		directory.delete();
+		directory.mkdir();
+		journal = new File(directory, "progress.journal");
+		snapshot = new File(directory, "progress.snapshot");
+
+		// Distinct 6 digit ZIP codes in random order
+		Random random = new Random(42);
+		int[] codes = new int[1000000];
+		for (int i = 0; i < codes.length; i++) {
+			codes[i] = i;
+		}
+		for (int i = codes.length - 1; i > 0; i--) {
+			final int j = random.nextInt(i + 1);
+			final int code = codes[i];
+			codes[i] = codes[j];
+			codes[j] = code;
+		}
+
+		input = new File(directory, "input.txt");
+		Writer out = writer(input, "");
+		try {
+			for (int i = 0; i < zipCodes; i++) {
+				if (random.nextInt(100) == 0) {
+					out.write("12a45");
+				} else {
+					out.write(String.format("%06d", codes[i]));
+				}
+				out.write(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+			}
+		} finally {
+			out.close();
+		}
+
+		for (int i = 0; i < RESULT_FILES.length; i++) {
+			resultFiles[i] = Translator.field("ResultWriter", RESULT_FILES[i]);
+			Translator.setField("ResultWriter", RESULT_FILES[i], new File(directory, RESULT_FILES[i] + ".txt"));
+		}
+		if (progress.equals("empty")) {
+			// An existing, empty journal keeps the ProgressJournal from importing the result files
+			journal.createNewFile();
+			return;
+		}
+
+		Writer results = writer(new File(directory, "results.txt"), (String) Translator.field("ResultWriter", "HEADER"));
+		Writer invalids = writer(new File(directory, "invalids.txt"),
+				(String) Translator.field("ResultWriter", "INVALIDS_HEADER"));
+		try {
+			for (int i = 0; i < zipCodes * 9 / 10; i++) {
+				if (i < zipCodes * 8 / 10) {
+					results.write(String.format("%06d; Strada Egalitatii; Pitesti; Arges; 44.8564798, 24.8691824\n",
+							codes[i]));
+				} else {
+					invalids.write(String.format("%06d;\n", codes[i]));
+				}
+			}
+		} finally {
+			results.close();
+			invalids.close();
+		}
+		if (progress.equals("snapshot")) {
+			// Importing the result files once leaves their snapshot behind
+			Translator.CLOSE_PROGRESS_JOURNAL.invoke(Translator.NEW_PROGRESS_JOURNAL.invoke(journal, snapshot, 3));
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void forgetImport() {
+		if (progress.equals("results")) {
+			journal.delete();
+			snapshot.delete();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (int i = 0; i < RESULT_FILES.length; i++) {
+			Translator.setField("ResultWriter", RESULT_FILES[i], resultFiles[i]);
+		}
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Benchmark
+	public int resume() throws Throwable {
+		Object progressJournal = Translator.NEW_PROGRESS_JOURNAL.invoke(journal, snapshot, 3);
+		int count = 0;
+		try {
+			Object inputData = Translator.NEW_INPUT_DATA.invoke(input, 6, Translator.ALL_SHARDS, progressJournal);
+			Object reader = Translator.GET_ZIP_CODES.invoke(inputData);
+			try {
+				while (Translator.READ_ZIP_CODE.invoke(reader) != null) {
+					count++;
+				}
+			} finally {
+				Translator.CLOSE_ZIP_CODE_READER.invoke(reader);
+			}
+		} finally {
+			Translator.CLOSE_PROGRESS_JOURNAL.invoke(progressJournal);
+		}
+		return count;
+	}
+
+	private static Writer writer(File file, String header) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+		out.write(header);
+		return out;
+	}
+}
@@ -0,0 +1,190 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A batch of ZIP codes pushed through the LookupPipeline, whose geocoding workers run either on
+ * platform threads or on virtual threads(--virtualthreads), against a GeocoderStandInServer
+ * answering each query after LATENCY ms.
+ * <p>
+ * The postal lookup is a stub answering right away, so the run is bound by how many geocoding
+ * requests wait on the stand-in at once: ideally ROUNDS x LATENCY ms whatever the number of
+ * workers. Virtual threads only exist from Java 21 on; on older JVMs the pipeline falls back to
+ * platform threads and both modes measure the same thing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LookupPipelineBenchmark {
+
+	/**
+	 * Delay(ms) of each answer of the stand-in geocoder.
+	 */
+	private static final long LATENCY = 200;
+
+	/**
+	 * ZIP codes of a run, per geocoding worker.
+	 */
+	private static final int ROUNDS = 5;
+
+	private static final int POSTAL_WORKERS = 4;
+
+	@Param({"platform", "virtual"})
+	public String threads;
+
+	@Param({"100", "1000"})
+	public int workers;
+
+	private File directory;
+
+	private File input;
+
+	private Object server;
+
+	private Object rateLimiter;
+
+	private Object resultWriter;
+
+	/**
+	 * Postal lookup giving every ZIP code the same locality, so each one is geocoded once.
+	 */
+	private Object postalLookup;
+
+	private Object progressJournal;
+
+	/**
+	 * Result files of the ResultWriter before they were pointed at the benchmark directory.
+	 */
+	private final Object[] resultFiles = new Object[3];
+
+
+	@Setup(Level.Trial)
+	public void setUp() throws Throwable {
+		directory = File.createTempFile("lookup-pipeline-benchmark", "");
+		directory.delete();
+		directory.mkdir();
+
+		input = new File(directory, "input.txt");
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(input), StandardCharsets.UTF_8));
+		try {
+			for (int i = 0; i < workers * ROUNDS; i++) {
+				out.write(String.format("%06d\n", 100000 + i));
+			}
+		} finally {
+			out.close();
+		}
+
+		final String[] names = {"results", "invalids", "errors"};
+		for (int i = 0; i < names.length; i++) {
+			resultFiles[i] = Translator.field("ResultWriter", names[i]);
+			Translator.setField("ResultWriter", names[i], new File(directory, names[i] + ".txt"));
+		}
+		resultWriter = Translator.NEW_RESULT_WRITER.invoke(1000, 5000L, Translator.SYNC_NEVER);
+
+		// Kept-alive connections, as Main.run() sets it
+		System.setProperty("http.maxConnections", String.valueOf(workers));
+		final int port = freePort();
+		server = Translator.NEW_GEOCODER_STAND_IN.invoke(port, LATENCY, 0.0, 0.0, 0.0, 0.0);
+		Translator.START_GEOCODER_STAND_IN.invoke(server);
+		rateLimiter = Translator.NEW_GEOCODE_RATE_LIMITER.invoke(1000000.0, Integer.MAX_VALUE,
+				new File(directory, "quota.txt"));
+		Translator.setField("Main", "geocoder", Translator.NEW_GOOGLE_GEOCODER.invoke(
+				"http://localhost:" + port + "/maps/api/geocode/xml", rateLimiter, 5000, 5000, workers));
+
+		final Class<?> postalLookupType = Translator.type("PostalLookup");
+		postalLookup = Proxy.newProxyInstance(postalLookupType.getClassLoader(), new Class<?>[]{postalLookupType},
+				new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("lookup")) {
+					Object g = Translator.NEW_GEO_INFO.invoke();
+					Translator.SET_LOCALITY.invoke(g, "Pitesti");
+					Translator.SET_COUNTY.invoke(g, "Arges");
+					return g;
+				}
+				return null;
+			}
+		});
+	}
+
+	@Setup(Level.Invocation)
+	public void openJournal() throws Throwable {
+		// A new journal per run, or the ZIP codes would be skipped as already read
+		File journal = new File(directory, "progress.journal");
+		File snapshot = new File(directory, "progress.snapshot");
+		journal.delete();
+		snapshot.delete();
+		journal.createNewFile();
+		progressJournal = Translator.NEW_PROGRESS_JOURNAL.invoke(journal, snapshot, 3);
+	}
+
+	@TearDown(Level.Invocation)
+	public void closeJournal() throws Throwable {
+		Translator.CLOSE_PROGRESS_JOURNAL.invoke(progressJournal);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Throwable {
+		Translator.CLOSE_RESULT_WRITER.invoke(resultWriter);
+		Translator.CLOSE_GEOCODE_RATE_LIMITER.invoke(rateLimiter);
+		Translator.STOP_GEOCODER_STAND_IN.invoke(server);
+		final String[] names = {"results", "invalids", "errors"};
+		for (int i = 0; i < names.length; i++) {
+			Translator.setField("ResultWriter", names[i], resultFiles[i]);
+		}
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Benchmark
+	public void run() throws Throwable {
+		Object inputData = Translator.NEW_INPUT_DATA.invoke(input, 6, Translator.ALL_SHARDS, progressJournal);
+		Object reader = Translator.GET_ZIP_CODES.invoke(inputData);
+		try {
+			Object pipeline = Translator.NEW_LOOKUP_PIPELINE.invoke(resultWriter, null, postalLookup, POSTAL_WORKERS,
+					workers, 0L, threads.equals("virtual"));
+			Translator.RUN_LOOKUP_PIPELINE.invoke(pipeline, reader);
+		} finally {
+			Translator.CLOSE_ZIP_CODE_READER.invoke(reader);
+		}
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+}
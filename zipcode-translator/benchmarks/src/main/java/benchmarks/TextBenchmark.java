@@ -0,0 +1,108 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-record text handling: diacritics folding, street cleanup, search address building,
+ * parsing of a Coduri Postale result line and formatting of a result line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextBenchmark {
+
+	private static final String RESULT_LINE = "Pite\u0219ti(Arge\u0219), Strada \u0218tefan cel Mare nr. 12-20; bl. 3";
+
+	private static final String LONG_RESULT_LINE = "Bucure\u0219ti(Sectorul 1), Bulevardul Lasc\u0103r Catargiu "
+			+ "(fost Ana Ip\u0103tescu), Intrarea (fost Prelungirea) Doroban\u0163ilor nr. 1-37; 2-40 bl. A1, B2, C3";
+
+	private static final String DIACRITICS = "\u0218oseaua \u021Aiglina \u00CEngust\u0103, Bra\u0219ov, \u0102\u00C2\u00CE\u0218\u021A";
+
+	private String street;
+
+	private Object geoInfo;
+
+
+	@Setup
+	public void setUp() throws Throwable {
+		geoInfo = Translator.NEW_GEO_INFO.invoke();
+		Translator.GET_COUNTY_LOCALITY_AND_STREETS.invoke(geoInfo, RESULT_LINE);
+		street = "Strada Stefan cel Mare";
+	}
+
+	@Benchmark
+	public String translateToEnglish() throws Throwable {
+		return (String) Translator.TRANSLATE_TO_ENGLISH.invoke(DIACRITICS);
+	}
+
+	@Benchmark
+	public String cleanupStreetName() throws Throwable {
+		return (String) Translator.CLEANUP_STREET_NAME.invoke("Strada Stefan cel Mare nr. 12-20; bl. 3");
+	}
+
+	@Benchmark
+	public String getSearchAddress() throws Throwable {
+		return (String) Translator.GET_SEARCH_ADDRESS.invoke("Arges", "Pitesti", street);
+	}
+
+	@Benchmark
+	public Object getCountyLocalityAndStreets() throws Throwable {
+		Object g = Translator.NEW_GEO_INFO.invoke();
+		Translator.GET_COUNTY_LOCALITY_AND_STREETS.invoke(g, RESULT_LINE);
+		return g;
+	}
+
+	@Benchmark
+	public Object getCountyLocalityAndStreetsLongLine() throws Throwable {
+		Object g = Translator.NEW_GEO_INFO.invoke();
+		Translator.GET_COUNTY_LOCALITY_AND_STREETS.invoke(g, LONG_RESULT_LINE);
+		return g;
+	}
+
+	/**
+	 * Baseline: the regex getCountyLocalityAndStreets compiled on every call before SearchResultParser.
+	 */
+	@Benchmark
+	public Object regexCountyLocalityAndStreets() throws Throwable {
+		return regexCountyLocalityAndStreets(RESULT_LINE);
+	}
+
+	@Benchmark
+	public Object regexCountyLocalityAndStreetsLongLine() throws Throwable {
+		return regexCountyLocalityAndStreets(LONG_RESULT_LINE);
+	}
+
+	@Benchmark
+	public String getMessage() throws Throwable {
+		return (String) Translator.GET_MESSAGE.invoke("110001", geoInfo, street);
+	}
+
+	private static Object regexCountyLocalityAndStreets(String text) throws Throwable {
+		Object g = Translator.NEW_GEO_INFO.invoke();
+		Matcher m = Pattern.compile("(.+)\\((.+)\\),(.+)?").matcher((String) Translator.TRANSLATE_TO_ENGLISH.invoke(text));
+		if (m.find()) {
+			Translator.SET_LOCALITY.invoke(g, m.group(1));
+			Translator.SET_COUNTY.invoke(g, m.group(2));
+			if (m.group(3) != null && m.group(3).length() > 1) {
+				Translator.ADD_STREET.invoke(g, (String) Translator.CLEANUP_STREET_NAME.invoke(m.group(3)));
+			}
+		}
+		return g;
+	}
+}
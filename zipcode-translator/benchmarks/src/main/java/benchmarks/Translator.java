@@ -0,0 +1,136 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Handles on the classes of the translator. They're in the default package, which can't be
+ * imported from a named one, and JMH doesn't accept benchmarks in the default package, so
+ * they're reached through method handles. Kept in static final fields, the handles are
+ * constants to the JIT and cost no more than a direct call.
+ */
+final class Translator {
+
+	static final Class<?> GEO_INFO = type("GeoInfo");
+
+	static final MethodHandle NEW_GEO_INFO = constructor(GEO_INFO);
+
+	static final MethodHandle SET_LOCALITY = method("GeoInfo", "setLocality", String.class);
+
+	static final MethodHandle SET_COUNTY = method("GeoInfo", "setCounty", String.class);
+
+	static final MethodHandle ADD_STREET = method("GeoInfo", "addStreet", String.class);
+
+	static final MethodHandle TRANSLATE_TO_ENGLISH = method("Main", "translateToEnglish", String.class);
+
+	static final MethodHandle CLEANUP_STREET_NAME = method("Main", "cleanupStreetName", String.class);
+
+	static final MethodHandle GET_SEARCH_ADDRESS = method("Main", "getSearchAddress",
+			String.class, String.class, String.class);
+
+	static final MethodHandle GET_COUNTY_LOCALITY_AND_STREETS = method("Main", "getCountyLocalityAndStreets",
+			GEO_INFO, String.class);
+
+	static final MethodHandle GET_MESSAGE = method("ResultWriter", "getMessage", String.class, GEO_INFO, String.class);
+
+	static final MethodHandle PARSE_GEOCODE_RESPONSE = method("GeocodeResponseParser", "parse",
+			java.io.InputStream.class, String.class);
+
+	static final MethodHandle NEW_PROGRESS_JOURNAL = constructor(type("ProgressJournal"),
+			java.io.File.class, java.io.File.class, int.class);
+
+	static final MethodHandle CLOSE_PROGRESS_JOURNAL = method("ProgressJournal", "close");
+
+	static final MethodHandle NEW_INPUT_DATA = constructor(type("InputData"),
+			java.io.File.class, int.class, type("Shard"), type("ProgressJournal"));
+
+	static final MethodHandle GET_ZIP_CODES = method("InputData", "getZipCodes");
+
+	static final MethodHandle READ_ZIP_CODE = method("ZipCodeReader", "read");
+
+	static final MethodHandle CLOSE_ZIP_CODE_READER = method("ZipCodeReader", "close");
+
+	static final Object ALL_SHARDS = field("Shard", "ALL");
+
+	static final MethodHandle NEW_RESULT_WRITER = constructor(type("ResultWriter"),
+			int.class, long.class, type("ResultWriter$SyncPolicy"));
+
+	static final MethodHandle CLOSE_RESULT_WRITER = method("ResultWriter", "close");
+
+	static final Object SYNC_NEVER = field("ResultWriter$SyncPolicy", "NEVER");
+
+	static final MethodHandle NEW_GEOCODE_RATE_LIMITER = constructor(type("GeocodeRateLimiter"),
+			double.class, int.class, java.io.File.class);
+
+	static final MethodHandle CLOSE_GEOCODE_RATE_LIMITER = method("GeocodeRateLimiter", "close");
+
+	static final MethodHandle NEW_GOOGLE_GEOCODER = constructor(type("GoogleGeocoder"),
+			String.class, type("GeocodeRateLimiter"), int.class, int.class, int.class);
+
+	static final MethodHandle NEW_GEOCODER_STAND_IN = constructor(type("GeocoderStandInServer"),
+			int.class, long.class, double.class, double.class, double.class, double.class);
+
+	static final MethodHandle START_GEOCODER_STAND_IN = method("GeocoderStandInServer", "start");
+
+	static final MethodHandle STOP_GEOCODER_STAND_IN = method("GeocoderStandInServer", "stop");
+
+	static final MethodHandle NEW_LOOKUP_PIPELINE = constructor(type("LookupPipeline"), type("ResultWriter"),
+			type("ZipGeoIndex"), type("PostalLookup"), int.class, int.class, long.class, boolean.class);
+
+	static final MethodHandle RUN_LOOKUP_PIPELINE = method("LookupPipeline", "run", type("ZipCodeReader"));
+
+
+	private Translator() {
+	}
+
+	static Class<?> type(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MethodHandle method(String className, String name, Class<?>... parameterTypes) {
+		try {
+			Method method = type(className).getDeclaredMethod(name, parameterTypes);
+			method.setAccessible(true);
+			return MethodHandles.lookup().unreflect(method);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MethodHandle constructor(Class<?> type, Class<?>... parameterTypes) {
+		try {
+			Constructor<?> constructor = type.getDeclaredConstructor(parameterTypes);
+			constructor.setAccessible(true);
+			return MethodHandles.lookup().unreflectConstructor(constructor);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static Object field(String className, String name) {
+		try {
+			Field field = type(className).getDeclaredField(name);
+			field.setAccessible(true);
+			return field.get(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static void setField(String className, String name, Object value) {
+		try {
+			Field field = type(className).getDeclaredField(name);
+			field.setAccessible(true);
+			field.set(null, value);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+/**
+ * Looks ZIP codes up by driving the Coduri Postale form in browser sessions from a pool.
+ */
+public class BrowserPostalLookup implements PostalLookup {
+
+	private final OperaDriverPool driverPool;
+
+
+	public BrowserPostalLookup(OperaDriverPool driverPool) {
+		this.driverPool = driverPool;
+	}
+
+	@Override
+	public GeoInfo lookup(String zipCode) throws InterruptedException {
+		OperaDriverPool.Session session = driverPool.checkout();
+		try {
+			return Main.getInformationFromCoduriPostale(session, zipCode);
+		} finally {
+			driverPool.release(session);
+		}
+	}
+
+	@Override
+	public void close() {
+		driverPool.close();
+		driverPool.showStatistics();
+	}
+}
@@ -0,0 +1,28 @@
+import java.io.IOException;
+
+/**
+ * Geocoder answering from a GeocodeCache, only asking the underlying geocoder about the
+ * addresses that aren't cached yet.
+ */
+public class CachingGeocoder implements Geocoder {
+
+	private final Geocoder geocoder;
+
+	private final GeocodeCache cache;
+
+
+	public CachingGeocoder(Geocoder geocoder, GeocodeCache cache) {
+		this.geocoder = geocoder;
+		this.cache = cache;
+	}
+
+	@Override
+	public GeocodeResult geocode(String address) throws IOException {
+		GeocodeResult result = cache.get(address);
+		if (result == null) {
+			result = geocoder.geocode(address);
+			cache.put(address, result);
+		}
+		return result;
+	}
+}
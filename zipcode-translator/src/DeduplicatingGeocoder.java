@@ -0,0 +1,88 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Geocoder coalescing concurrent queries of the same address. Many ZIP codes share a locality
+ * and county, so they all search for the same address: the first one to ask queries the
+ * underlying geocoder, and the ones asking while that query is in flight wait for its result.
+ * <p>
+ * Only queries in flight are kept, so memory doesn't grow with the run. An address asked for
+ * later goes to the underlying geocoder again, where the GeocodeCache answers it without
+ * reaching the network.
+ */
+public class DeduplicatingGeocoder implements Geocoder {
+
+	private static final Logger LOGGER = Logger.getLogger(DeduplicatingGeocoder.class.getName());
+
+	private final Geocoder geocoder;
+
+	/**
+	 * Query in flight of each address, keyed by normalized address.
+	 */
+	private final ConcurrentMap<String, Future<GeocodeResult>> queries =
+			new ConcurrentHashMap<String, Future<GeocodeResult>>();
+
+	private final AtomicLong asked = new AtomicLong();
+
+	private final AtomicLong queried = new AtomicLong();
+
+
+	public DeduplicatingGeocoder(Geocoder geocoder) {
+		this.geocoder = geocoder;
+	}
+
+	@Override
+	public GeocodeResult geocode(final String address) throws IOException {
+		asked.incrementAndGet();
+		final String key = GeocodeCache.normalize(address);
+
+		Future<GeocodeResult> query = queries.get(key);
+		if (query == null) {
+			FutureTask<GeocodeResult> task = new FutureTask<GeocodeResult>(new Callable<GeocodeResult>() {
+				@Override
+				public GeocodeResult call() throws IOException {
+					return geocoder.geocode(address);
+				}
+			});
+			query = queries.putIfAbsent(key, task);
+			if (query == null) {
+				// Ours to run, in this thread
+				query = task;
+				queried.incrementAndGet();
+				try {
+					task.run();
+				} finally {
+					queries.remove(key, task);
+				}
+			}
+		}
+
+		try {
+			return query.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the query of: " + address);
+		}
+	}
+
+	/**
+	 * Show how many of the addresses asked for have been passed on to the underlying geocoder.
+	 */
+	public void showStatistics() {
+		LOGGER.info(String.format("Geocoding deduplication:\n - %d addresses asked for, %d passed on\n",
+				asked.get(), queried.get()));
+	}
+}
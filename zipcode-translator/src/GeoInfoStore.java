@@ -0,0 +1,342 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.primitives.Ints;
+
+/**
+ * Compact in-memory store of geocoded ZIP codes, for keeping large result sets around.
+ * <p>
+ * Instead of a GeoInfo object per ZIP code, records are packed into parallel int arrays:
+ * coordinates as fixed-point ints of 10<sup>-7</sup> degrees(the precision of the geocoder),
+ * and county, locality and street names as ids into a dictionary keeping each name once.
+ * ZIP codes are found through an open addressing hash table of ints, so a record costs about
+ * 36 bytes, while a GeoInfo with its strings and list costs hundreds.
+ * <p>
+ * Not thread-safe: fill it in one thread, then it can be read from many.
+ */
+public class GeoInfoStore {
+
+	private static final Logger LOGGER = Logger.getLogger(GeoInfoStore.class.getName());
+
+	/**
+	 * Fixed-point coordinates are in units of 1 / SCALE degrees.
+	 */
+	private static final int SCALE = 10000000;
+
+	/**
+	 * Decimals of the fixed-point coordinates.
+	 */
+	private static final int DECIMALS = 7;
+
+	/**
+	 * Coordinate of a record without coordinates.
+	 */
+	private static final int NO_COORDINATE = Integer.MIN_VALUE;
+
+	/**
+	 * Name id of a missing name.
+	 */
+	private static final int NO_NAME = -1;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+	private final List<String> names = new ArrayList<String>();
+
+	private int size;
+
+	private int[] zipCodes = new int[INITIAL_CAPACITY];
+
+	private int[] latitudes = new int[INITIAL_CAPACITY];
+
+	private int[] longitudes = new int[INITIAL_CAPACITY];
+
+	private int[] counties = new int[INITIAL_CAPACITY];
+
+	private int[] localities = new int[INITIAL_CAPACITY];
+
+	private int[] streets = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Hash table of record positions + 1, 0 being an empty slot. Its length is a power of two.
+	 */
+	private int[] table = new int[INITIAL_CAPACITY * 2];
+
+
+	/**
+	 * Load the records of a results file, having lines of the format:
+	 * <code>
+	 * ZIP; Street; Locality; County; Latitude, Longitude
+	 * </code>
+	 * Lines that can't be parsed are skipped. A ZIP code found twice keeps its last record.
+	 *
+	 * @param file results file
+	 * @return GeoInfoStore object
+	 * @throws IOException if the file couldn't be read
+	 */
+	public static GeoInfoStore load(File file) throws IOException {
+		GeoInfoStore store = new GeoInfoStore();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				store.addResult(line);
+			}
+		} finally {
+			reader.close();
+		}
+		LOGGER.info("Loaded " + store.size() + " zip codes from " + file.getAbsolutePath());
+		return store;
+	}
+
+	/**
+	 * Add a line of a results file.
+	 *
+	 * @param line results line
+	 * @return true if the line could be parsed
+	 */
+	boolean addResult(String line) {
+		String[] fields = line.split(";", -1);
+		if (fields.length < 5) {
+			return false;
+		}
+		Integer zipCode = Ints.tryParse(fields[0].trim());
+		String[] coordinates = fields[4].split(",");
+		if (zipCode == null || zipCode < 0 || coordinates.length != 2) {
+			return false;
+		}
+
+		GeoInfo g = new GeoInfo();
+		g.setLocality(fields[2].trim());
+		g.setCounty(fields[3].trim());
+		g.setLatitude(coordinates[0].trim());
+		g.setLongitude(coordinates[1].trim());
+		final String street = fields[1].trim();
+		try {
+			put(zipCode, g, street.equals("-") ? null : street);
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Store the information of a ZIP code, replacing what was stored for it before.
+	 *
+	 * @param zipCode ZIP code
+	 * @param g GeoInfo object
+	 * @param street name of the street that has been geocoded(can be null)
+	 * @throws NumberFormatException if the coordinates aren't numbers
+	 */
+	public void put(int zipCode, GeoInfo g, String street) {
+		final int latitude = toFixedPoint(g.getLatitude());
+		final int longitude = toFixedPoint(g.getLongitude());
+
+		int i = indexOf(zipCode);
+		if (i < 0) {
+			i = size++;
+			if (i == zipCodes.length) {
+				grow();
+			}
+			zipCodes[i] = zipCode;
+			insert(table, zipCode, i);
+		}
+		latitudes[i] = latitude;
+		longitudes[i] = longitude;
+		counties[i] = intern(g.getCounty());
+		localities[i] = intern(g.getLocality());
+		streets[i] = intern(street);
+	}
+
+	/**
+	 * Get the information about a ZIP code.
+	 *
+	 * @param zipCode ZIP code
+	 * @return new GeoInfo object, its only street being the geocoded one, or null if the ZIP code isn't stored
+	 */
+	public GeoInfo get(int zipCode) {
+		final int i = indexOf(zipCode);
+		if (i < 0) {
+			return null;
+		}
+
+		GeoInfo g = new GeoInfo();
+		g.setCounty(getCounty(i));
+		g.setLocality(getLocality(i));
+		if (streets[i] != NO_NAME) {
+			g.addStreet(getStreet(i));
+		}
+		if (latitudes[i] != NO_COORDINATE && longitudes[i] != NO_COORDINATE) {
+			g.setLatitude(toString(latitudes[i]));
+			g.setLongitude(toString(longitudes[i]));
+		}
+		return g;
+	}
+
+	/**
+	 * Find the position of a ZIP code, for reading its record without creating objects.
+	 *
+	 * @param zipCode ZIP code
+	 * @return position between 0 and size() - 1, or -1 if the ZIP code isn't stored
+	 */
+	public int indexOf(int zipCode) {
+		final int mask = table.length - 1;
+		for (int slot = hash(zipCode) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+			if (zipCodes[table[slot] - 1] == zipCode) {
+				return table[slot] - 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get number of ZIP codes in the store.
+	 *
+	 * @return number of ZIP codes
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the ZIP code at a position.
+	 *
+	 * @param i position
+	 * @return ZIP code
+	 */
+	public int getZipCode(int i) {
+		return zipCodes[i];
+	}
+
+	/**
+	 * Get the latitude at a position.
+	 *
+	 * @param i position
+	 * @return latitude or NaN if there are no coordinates
+	 */
+	public double getLatitude(int i) {
+		return toDegrees(latitudes[i]);
+	}
+
+	/**
+	 * Get the longitude at a position.
+	 *
+	 * @param i position
+	 * @return longitude or NaN if there are no coordinates
+	 */
+	public double getLongitude(int i) {
+		return toDegrees(longitudes[i]);
+	}
+
+	/**
+	 * Get the county at a position.
+	 *
+	 * @param i position
+	 * @return county name or null
+	 */
+	public String getCounty(int i) {
+		return name(counties[i]);
+	}
+
+	/**
+	 * Get the locality at a position.
+	 *
+	 * @param i position
+	 * @return locality name or null
+	 */
+	public String getLocality(int i) {
+		return name(localities[i]);
+	}
+
+	/**
+	 * Get the geocoded street at a position.
+	 *
+	 * @param i position
+	 * @return street name or null if the locality has been geocoded
+	 */
+	public String getStreet(int i) {
+		return name(streets[i]);
+	}
+
+	private void grow() {
+		final int capacity = zipCodes.length * 2;
+		zipCodes = Arrays.copyOf(zipCodes, capacity);
+		latitudes = Arrays.copyOf(latitudes, capacity);
+		longitudes = Arrays.copyOf(longitudes, capacity);
+		counties = Arrays.copyOf(counties, capacity);
+		localities = Arrays.copyOf(localities, capacity);
+		streets = Arrays.copyOf(streets, capacity);
+
+		// Keep the table at most half full
+		int[] larger = new int[capacity * 2];
+		for (int i = 0; i < size - 1; i++) {
+			insert(larger, zipCodes[i], i);
+		}
+		table = larger;
+	}
+
+	private static void insert(int[] table, int zipCode, int i) {
+		final int mask = table.length - 1;
+		int slot = hash(zipCode) & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = i + 1;
+	}
+
+	private static int hash(int zipCode) {
+		// ZIP codes are dense, so spread them over the table
+		final int h = zipCode * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private int intern(String name) {
+		if (name == null) {
+			return NO_NAME;
+		}
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			ids.put(name, id);
+			names.add(name);
+		}
+		return id;
+	}
+
+	private String name(int id) {
+		return id == NO_NAME ? null : names.get(id);
+	}
+
+	private static int toFixedPoint(String coordinate) {
+		if (coordinate == null) {
+			return NO_COORDINATE;
+		}
+		try {
+			return new BigDecimal(coordinate).movePointRight(DECIMALS).setScale(0, RoundingMode.HALF_UP)
+					.intValueExact();
+		} catch (ArithmeticException e) {
+			throw new NumberFormatException("Coordinate out of range: " + coordinate);
+		}
+	}
+
+	private static double toDegrees(int coordinate) {
+		return coordinate == NO_COORDINATE ? Double.NaN : (double) coordinate / SCALE;
+	}
+
+	private static String toString(int coordinate) {
+		return BigDecimal.valueOf(coordinate, DECIMALS).stripTrailingZeros().toPlainString();
+	}
+}
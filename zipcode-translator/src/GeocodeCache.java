@@ -0,0 +1,278 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Persistent cache of geocoding results, keyed by normalized search address.
+ * <p>
+ * Results are appended to a log file, one per line:
+ * <code>
+ * address TAB latitude TAB longitude
+ * address TAB -
+ * </code>
+ * the second form being an address the geocoder knows no location for. An in-memory index
+ * maps every address in the log to the offset of its line, while the parsed results of the
+ * most recently used addresses are kept in an LRU map. An address that is in the log never
+ * reaches the network, whether it's still in the LRU map or not.
+ */
+public class GeocodeCache {
+
+	private static final Logger LOGGER = Logger.getLogger(GeocodeCache.class.getName());
+
+	private static final char SEPARATOR = '\t';
+
+	private static final String NOT_FOUND = "-";
+
+	private final RandomAccessFile log;
+
+	/**
+	 * Offset of the line of each address in the log.
+	 */
+	private final Map<String, Long> index = new HashMap<String, Long>();
+
+	/**
+	 * Most recently used results.
+	 */
+	private final Map<String, GeocodeResult> recent;
+
+	/**
+	 * Guards the log file and the maps. Not a synchronized block, so that a virtual thread doing
+	 * I/O on the log while holding it doesn't pin its carrier thread.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+
+	/**
+	 * Open the cache, loading the index of the given log file(created if it doesn't exist).
+	 *
+	 * @param file log file
+	 * @param capacity number of results kept in memory
+	 * @throws IOException if the log file couldn't be read
+	 */
+	public GeocodeCache(File file, final int capacity) throws IOException {
+		recent = new LinkedHashMap<String, GeocodeResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, GeocodeResult> eldest) {
+				return size() > capacity;
+			}
+		};
+
+		final long length = load(file);
+		log = new RandomAccessFile(file, "rw");
+		if (log.length() != length) {
+			// Drop a line torn by a crash during append, so new lines start on a line boundary
+			LOGGER.warning("Dropping incomplete last line of " + file.getAbsolutePath());
+			log.setLength(length);
+		}
+
+		LOGGER.info("Geocode cache contains " + index.size() + " addresses.");
+	}
+
+	/**
+	 * Get the cached result for an address.
+	 *
+	 * @param address search address
+	 * @return GeocodeResult object or null if the address isn't cached
+	 * @throws IOException if the log file couldn't be read
+	 */
+	public GeocodeResult get(String address) throws IOException {
+		lock.lock();
+		try {
+			final String key = normalize(address);
+
+			GeocodeResult result = recent.get(key);
+			if (result == null) {
+				Long offset = index.get(key);
+				if (offset != null) {
+					log.seek(offset);
+					final String line = log.readLine();
+					result = parse(line.substring(line.indexOf(SEPARATOR) + 1));
+					recent.put(key, result);
+				}
+			}
+
+			if (result != null) {
+				hits++;
+			} else {
+				misses++;
+			}
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Add the result for an address to the cache. Only definitive results are cached.
+	 *
+	 * @param address search address
+	 * @param result GeocodeResult object
+	 * @throws IOException if the log file couldn't be written
+	 */
+	public void put(String address, GeocodeResult result) throws IOException {
+		lock.lock();
+		try {
+			if (!result.isDefinitive()) {
+				return;
+			}
+
+			final String key = normalize(address);
+			if (index.containsKey(key)) {
+				return;
+			}
+
+			StringBuilder line = new StringBuilder(key).append(SEPARATOR);
+			if (result.isFound()) {
+				line.append(result.getLatitude()).append(SEPARATOR).append(result.getLongitude());
+			} else {
+				line.append(NOT_FOUND);
+			}
+			line.append('\n');
+
+			final long offset = log.length();
+			log.seek(offset);
+			log.write(line.toString().getBytes(Charsets.UTF_8));
+
+			index.put(key, offset);
+			recent.put(key, result);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get number of lookups answered by the cache.
+	 *
+	 * @return number of hits
+	 */
+	public long getHits() {
+		lock.lock();
+		try {
+			return hits;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get number of lookups the cache couldn't answer.
+	 *
+	 * @return number of misses
+	 */
+	public long getMisses() {
+		lock.lock();
+		try {
+			return misses;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Close the log file.
+	 *
+	 * @throws IOException if something went wrong during close()
+	 */
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			log.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Normalize an address so that variations in case and spacing map to the same key.
+	 *
+	 * @param address search address
+	 * @return normalized address
+	 */
+	static String normalize(String address) {
+		StringBuilder sb = new StringBuilder(address.length());
+		boolean space = false;
+		for (int i = 0; i < address.length(); i++) {
+			final char c = address.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = sb.length() > 0;
+			} else {
+				if (space) {
+					sb.append(' ');
+					space = false;
+				}
+				sb.append(c);
+			}
+		}
+		return sb.toString().toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Index all complete lines of the log file.
+	 *
+	 * @param file log file
+	 * @return length of the log file up to the end of its last complete line
+	 * @throws IOException if the log file couldn't be read
+	 */
+	private long load(File file) throws IOException {
+		if (!file.exists()) {
+			return 0;
+		}
+
+		long offset = 0;
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int b;
+			while ((b = in.read()) != -1) {
+				if (b != '\n') {
+					line.write(b);
+					continue;
+				}
+
+				final String text = new String(line.toByteArray(), Charsets.UTF_8);
+				final int pos = text.indexOf(SEPARATOR);
+				if (pos > 0) {
+					index.put(text.substring(0, pos), offset);
+				}
+				offset += line.size() + 1;
+				line.reset();
+			}
+		} finally {
+			in.close();
+		}
+
+		return offset;
+	}
+
+	/**
+	 * Parse the value part of a log line.
+	 *
+	 * @param value latitude and longitude or NOT_FOUND
+	 * @return GeocodeResult object
+	 */
+	private static GeocodeResult parse(String value) {
+		final int pos = value.indexOf(SEPARATOR);
+		if (pos == -1) {
+			return GeocodeResult.NOT_FOUND;
+		}
+		return GeocodeResult.found(value.substring(0, pos), value.substring(pos + 1));
+	}
+}
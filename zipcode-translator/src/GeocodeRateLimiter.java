@@ -0,0 +1,281 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Throttles the geocoding queries to a number of requests per second and to a daily budget.
+ * <p>
+ * Queries are spaced evenly, like tokens dripping into a bucket at the current rate. When the
+ * geocoder answers OVER_QUERY_LIMIT the rate is halved, and it's then raised back step by step
+ * with each successful query. The number of queries used today is kept in a file, so restarts
+ * don't start the daily budget over. Days are counted in Pacific time, when the geocoder
+ * resets its quota.
+ * <p>
+ * The quota file isn't written for each query: queries are reserved in blocks of SAVE_BLOCK,
+ * and the file records the end of the current block, so a crash can only make the budget look
+ * more used than it was. close() records the exact number. The file is replaced atomically,
+ * so it's never found torn or empty.
+ */
+public class GeocodeRateLimiter {
+
+	private static final Logger LOGGER = Logger.getLogger(GeocodeRateLimiter.class.getName());
+
+	/**
+	 * Default first backoff(ms) after a failed query; each further attempt doubles it.
+	 */
+	private static final long BACKOFF_BASE = 1000;
+
+	/**
+	 * Maximum backoff(ms) after a failed query.
+	 */
+	private static final long BACKOFF_MAX = 60000;
+
+	/**
+	 * Lowest rate is the maximum rate divided by this.
+	 */
+	private static final double MIN_RATE_DIVISOR = 16;
+
+	/**
+	 * Number of successful queries needed to get from the lowest rate back to the maximum rate.
+	 */
+	private static final double RECOVERY_STEPS = 50;
+
+	/**
+	 * Number of queries reserved in the quota file at once.
+	 */
+	private static final int SAVE_BLOCK = 50;
+
+	private final double maxRate;
+
+	private final int dailyBudget;
+
+	/**
+	 * First backoff(ms) after a failed query.
+	 */
+	private final long backoffBase;
+
+	private final File quotaFile;
+
+	private final SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+	private final Random random = new Random();
+
+	/**
+	 * Guards the rate and the quota. Not a synchronized block, so that a virtual thread saving
+	 * the quota file while holding it doesn't pin its carrier thread.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Current rate(requests per second).
+	 */
+	private double rate;
+
+	/**
+	 * When(ns) the next query may be sent.
+	 */
+	private long nextFree = System.nanoTime();
+
+	private String day;
+
+	private int used;
+
+	/**
+	 * Number of queries recorded in the quota file for today.
+	 */
+	private int saved;
+
+
+	/**
+	 * @param requestsPerSecond maximum rate
+	 * @param dailyBudget maximum number of queries per day
+	 * @param quotaFile where the number of queries used today is kept
+	 * @throws IOException if the quota file couldn't be read
+	 */
+	public GeocodeRateLimiter(double requestsPerSecond, int dailyBudget, File quotaFile) throws IOException {
+		this(requestsPerSecond, dailyBudget, quotaFile, BACKOFF_BASE);
+	}
+
+	/**
+	 * @param requestsPerSecond maximum rate
+	 * @param dailyBudget maximum number of queries per day
+	 * @param quotaFile where the number of queries used today is kept
+	 * @param backoffBase first backoff(ms) after a failed query
+	 * @throws IOException if the quota file couldn't be read
+	 */
+	GeocodeRateLimiter(double requestsPerSecond, int dailyBudget, File quotaFile, long backoffBase) throws IOException {
+		this.maxRate = requestsPerSecond;
+		this.backoffBase = backoffBase;
+		this.rate = requestsPerSecond;
+		this.dailyBudget = dailyBudget;
+		this.quotaFile = quotaFile;
+		dayFormat.setTimeZone(TimeZone.getTimeZone("America/Los_Angeles"));
+
+		day = today();
+		if (quotaFile.exists()) {
+			String[] quota = Files.toString(quotaFile, Charsets.UTF_8).trim().split(" ");
+			if (quota.length == 2 && quota[0].equals(day)) {
+				try {
+					used = Integer.parseInt(quota[1]);
+				} catch (NumberFormatException e) {
+					LOGGER.warning("Ignoring invalid quota file " + quotaFile.getAbsolutePath());
+				}
+			}
+		}
+		saved = used;
+		LOGGER.info("Geocoding quota: " + getRemaining() + " of " + dailyBudget + " queries left for today.");
+	}
+
+	/**
+	 * Wait for the turn of a query and take it from the daily budget.
+	 *
+	 * @throws OverQueryLimitException if the daily budget has been used up
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws IOException if the quota file couldn't be written
+	 */
+	public void acquire() throws IOException, InterruptedException {
+		long wait;
+		lock.lock();
+		try {
+			rollOver();
+			if (used >= dailyBudget) {
+				throw new OverQueryLimitException("Daily geocoding budget of " + dailyBudget + " queries used up.");
+			}
+			used++;
+			if (used > saved) {
+				save(Math.min(dailyBudget, used + SAVE_BLOCK - 1));
+			}
+
+			final long now = System.nanoTime();
+			final long slot = Math.max(now, nextFree);
+			nextFree = slot + (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+			wait = slot - now;
+		} finally {
+			lock.unlock();
+		}
+		TimeUnit.NANOSECONDS.sleep(wait);
+	}
+
+	/**
+	 * A query has been answered, so the rate can be raised back a step.
+	 */
+	public void onSuccess() {
+		lock.lock();
+		try {
+			rate = Math.min(maxRate, rate + maxRate / RECOVERY_STEPS);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The geocoder answered OVER_QUERY_LIMIT, so the rate is halved.
+	 */
+	public void onOverQueryLimit() {
+		lock.lock();
+		try {
+			rate = Math.max(maxRate / MIN_RATE_DIVISOR, rate / 2);
+			LOGGER.warning(String.format("Geocoder is over the query limit, slowing down to %.2f queries / s.", rate));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The geocoder kept answering OVER_QUERY_LIMIT, so today's quota is considered used up.
+	 *
+	 * @throws IOException if the quota file couldn't be written
+	 */
+	public void exhaust() throws IOException {
+		lock.lock();
+		try {
+			used = Math.max(used, dailyBudget);
+			save(used);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait before retrying a failed query: an exponentially growing, randomly jittered time.
+	 *
+	 * @param attempt number of failed attempts so far, starting with 0
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void backoff(int attempt) throws InterruptedException {
+		final long cap = Math.min(BACKOFF_MAX, backoffBase << Math.min(attempt, 16));
+		final long wait;
+		synchronized (random) {
+			wait = cap / 2 + (long) (random.nextDouble() * cap / 2);
+		}
+		Thread.sleep(wait);
+	}
+
+	/**
+	 * Get the number of queries left for today.
+	 *
+	 * @return remaining queries
+	 */
+	public int getRemaining() {
+		lock.lock();
+		try {
+			rollOver();
+			return Math.max(0, dailyBudget - used);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Record the exact number of queries used today in the quota file.
+	 *
+	 * @throws IOException if the quota file couldn't be written
+	 */
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			rollOver();
+			if (saved != used) {
+				save(used);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void rollOver() {
+		final String today = today();
+		if (!today.equals(day)) {
+			day = today;
+			used = 0;
+			saved = 0;
+		}
+	}
+
+	private String today() {
+		return dayFormat.format(new Date());
+	}
+
+	/**
+	 * Replace the quota file through a temporary file, so it's never seen half written.
+	 *
+	 * @param queries number of queries to record for today
+	 */
+	private void save(int queries) throws IOException {
+		File temporary = new File(quotaFile.getPath() + ".tmp");
+		Files.write(day + " " + queries + "\n", temporary, Charsets.UTF_8);
+		java.nio.file.Files.move(temporary.toPath(), quotaFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		saved = queries;
+	}
+}
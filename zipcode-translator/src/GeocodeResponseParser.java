@@ -0,0 +1,124 @@
+import java.io.InputStream;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Parses the XML response of the Google Maps geocoder. The response is streamed and parsing
+ * stops as soon as the status and the location of the first result have been read, so no
+ * document is built and the rest of the response is never looked at.
+ * <p>
+ * Response format:
+ * <code>
+ * &lt;GeocodeResponse&gt;
+ *   &lt;status&gt;OK&lt;/status&gt;
+ *   &lt;result&gt;
+ *     ...
+ *     &lt;geometry&gt;&lt;location&gt;&lt;lat&gt;44.8&lt;/lat&gt;&lt;lng&gt;24.8&lt;/lng&gt;&lt;/location&gt;...&lt;/geometry&gt;
+ *   &lt;/result&gt;
+ *   ...
+ * &lt;/GeocodeResponse&gt;
+ * </code>
+ */
+public class GeocodeResponseParser {
+
+	private static final Logger LOGGER = Logger.getLogger(GeocodeResponseParser.class.getName());
+
+	private static final String STATUS = "/GeocodeResponse/status";
+
+	private static final String RESULT = "/GeocodeResponse/result";
+
+	private static final String LATITUDE = RESULT + "/geometry/location/lat";
+
+	private static final String LONGITUDE = RESULT + "/geometry/location/lng";
+
+	/**
+	 * Shared by all threads. The factory is configured once and then only used to create readers.
+	 */
+	private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+	static {
+		FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+	}
+
+
+	private GeocodeResponseParser() {
+	}
+
+	/**
+	 * Parse a geocoder response.
+	 *
+	 * @param in response body
+	 * @param address search address, for logging
+	 * @return GeocodeResult object
+	 * @throws OverQueryLimitException if the geocoder refused the query because of the query limit
+	 * @throws XMLStreamException if the response isn't well formed
+	 */
+	public static GeocodeResult parse(InputStream in, String address) throws OverQueryLimitException, XMLStreamException {
+		XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+		try {
+			return parse(reader, address);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static GeocodeResult parse(XMLStreamReader reader, String address) throws OverQueryLimitException, XMLStreamException {
+		StringBuilder path = new StringBuilder();
+		String status = null;
+		String latitude = null;
+		String longitude = null;
+		int results = 0;
+
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				path.append('/').append(reader.getLocalName());
+				final String current = path.toString();
+
+				if (current.equals(RESULT)) {
+					results++;
+				} else if (current.equals(STATUS)) {
+					status = reader.getElementText();
+					pop(path);
+
+					if (status.equals("OVER_QUERY_LIMIT")) {
+						throw new OverQueryLimitException("OVER_QUERY_LIMIT returned when querying for: " + address);
+					} else if (status.equals("ZERO_RESULTS")) {
+						return GeocodeResult.NOT_FOUND;
+					} else if (!status.equals("OK")) {
+						LOGGER.warning(String.format("%s returned when querying for: %s", status, address));
+						return GeocodeResult.FAILED;
+					}
+				} else if (results == 1 && current.equals(LATITUDE)) {
+					latitude = reader.getElementText();
+					pop(path);
+				} else if (results == 1 && current.equals(LONGITUDE)) {
+					longitude = reader.getElementText();
+					pop(path);
+				}
+
+				if (status != null && latitude != null && longitude != null) {
+					return GeocodeResult.found(latitude, longitude);
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				pop(path);
+				break;
+			}
+		}
+
+		if (status == null) {
+			LOGGER.warning("GoogleMaps's response contains no status!");
+		}
+		return GeocodeResult.FAILED;
+	}
+
+	private static void pop(StringBuilder path) {
+		path.setLength(path.lastIndexOf("/"));
+	}
+}
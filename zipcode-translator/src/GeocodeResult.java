@@ -0,0 +1,72 @@
+public class GeocodeResult {
+
+	/**
+	 * The geocoder knows no location for the address. Querying it again gives the same answer.
+	 */
+	public static final GeocodeResult NOT_FOUND = new GeocodeResult(null, null, true);
+
+	/**
+	 * The query failed(e.g. connection error, unexpected response). Querying it again might succeed.
+	 */
+	public static final GeocodeResult FAILED = new GeocodeResult(null, null, false);
+
+	private final String latitude;
+
+	private final String longitude;
+
+	private final boolean definitive;
+
+
+	private GeocodeResult(String latitude, String longitude, boolean definitive) {
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.definitive = definitive;
+	}
+
+	/**
+	 * Create a result for an address that has been located.
+	 *
+	 * @param latitude string
+	 * @param longitude string
+	 * @return GeocodeResult object
+	 */
+	public static GeocodeResult found(String latitude, String longitude) {
+		return new GeocodeResult(latitude, longitude, true);
+	}
+
+	/**
+	 * Get latitude.
+	 *
+	 * @return latitude string or null if not found
+	 */
+	public String getLatitude() {
+		return latitude;
+	}
+
+	/**
+	 * Get longitude.
+	 *
+	 * @return longitude string or null if not found
+	 */
+	public String getLongitude() {
+		return longitude;
+	}
+
+	/**
+	 * Ascertains if the address has been located.
+	 *
+	 * @return true if coordinates are set
+	 */
+	public boolean isFound() {
+		return latitude != null && longitude != null;
+	}
+
+	/**
+	 * Ascertains if this result won't change when querying again, i.e. it may be cached.
+	 *
+	 * @return true if the result is definitive
+	 */
+	public boolean isDefinitive() {
+		return definitive;
+	}
+}
@@ -0,0 +1,17 @@
+import java.io.IOException;
+
+/**
+ * Finds the coordinates of a search address.
+ */
+public interface Geocoder {
+
+	/**
+	 * Geocode an address.
+	 * 
+	 * @param address search address
+	 * @return GeocodeResult object
+	 * @throws OverQueryLimitException if we have reached the maximum number of queries
+	 * @throws IOException if the geocoder couldn't be queried
+	 */
+	GeocodeResult geocode(String address) throws IOException;
+}
@@ -0,0 +1,326 @@
+import jargs.gnu.CmdLineParser;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.jboss.netty.handler.codec.http.QueryStringDecoder;
+import org.jboss.netty.util.CharsetUtil;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+/**
+ * Local stand-in for the Google Maps geocoder, answering in the same XML format, so the
+ * geocoding path can be load tested with no network. Every address gets coordinates derived
+ * from its hash, so the same address is always found at the same place.
+ * <p>
+ * The answers can be delayed, and a share of them can be turned into HTTP errors,
+ * OVER_QUERY_LIMIT or ZERO_RESULTS, or never be sent at all, to see how the client copes.
+ * The number of connections is counted, to see whether the client keeps them alive. Point the translator at it
+ * with <code>-e http://localhost:&lt;port&gt;/maps/api/geocode/xml</code>.
+ */
+public class GeocoderStandInServer {
+
+	private static final Logger LOGGER = Logger.getLogger(GeocoderStandInServer.class.getName());
+
+	private final int port;
+
+	/**
+	 * Delay(ms) of each answer.
+	 */
+	private final long latency;
+
+	/**
+	 * Share of the queries answered with HTTP 500.
+	 */
+	private final double errorRate;
+
+	/**
+	 * Share of the queries answered with OVER_QUERY_LIMIT.
+	 */
+	private final double overQueryLimitRate;
+
+	/**
+	 * Share of the queries answered with ZERO_RESULTS.
+	 */
+	private final double zeroResultsRate;
+
+	/**
+	 * Share of the queries never answered.
+	 */
+	private final double stallRate;
+
+	private final Random random = new Random();
+
+	private final AtomicLong queries = new AtomicLong();
+
+	private final AtomicLong connections = new AtomicLong();
+
+	/**
+	 * Open connections, closed by stop() so it doesn't wait for clients keeping them alive.
+	 */
+	private final ChannelGroup openConnections = new DefaultChannelGroup("geocoder-stand-in");
+
+	private ServerBootstrap bootstrap;
+
+	private Timer timer;
+
+	private Channel channel;
+
+
+	/**
+	 * @param port port to listen on
+	 * @param latency delay(ms) of each answer
+	 * @param errorRate share of the queries answered with HTTP 500
+	 * @param overQueryLimitRate share of the queries answered with OVER_QUERY_LIMIT
+	 * @param zeroResultsRate share of the queries answered with ZERO_RESULTS
+	 * @param stallRate share of the queries never answered
+	 */
+	public GeocoderStandInServer(int port, long latency, double errorRate, double overQueryLimitRate,
+			double zeroResultsRate, double stallRate) {
+		this.port = port;
+		this.latency = latency;
+		this.errorRate = errorRate;
+		this.overQueryLimitRate = overQueryLimitRate;
+		this.zeroResultsRate = zeroResultsRate;
+		this.stallRate = stallRate;
+	}
+
+	/**
+	 * Start listening.
+	 */
+	public void start() {
+		// Ticks of 1 ms, the default 100 ms would round the latency up
+		timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS);
+		bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(
+				Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+		bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+			@Override
+			public ChannelPipeline getPipeline() {
+				ChannelPipeline pipeline = Channels.pipeline();
+				pipeline.addLast("decoder", new HttpRequestDecoder());
+				pipeline.addLast("aggregator", new HttpChunkAggregator(64 * 1024));
+				pipeline.addLast("encoder", new HttpResponseEncoder());
+				pipeline.addLast("handler", new Handler());
+				return pipeline;
+			}
+		});
+		bootstrap.setOption("child.tcpNoDelay", true);
+		bootstrap.setOption("child.keepAlive", true);
+		channel = bootstrap.bind(new InetSocketAddress(port));
+		LOGGER.info(String.format("Geocoder stand-in listening on port %d(latency %d ms, errors %.2f, " +
+				"over query limit %.2f, zero results %.2f, stalled %.2f).", port, latency, errorRate,
+				overQueryLimitRate, zeroResultsRate, stallRate));
+	}
+
+	/**
+	 * Stop listening and release the threads.
+	 */
+	public void stop() {
+		channel.close().awaitUninterruptibly();
+		openConnections.close().awaitUninterruptibly();
+		timer.stop();
+		bootstrap.releaseExternalResources();
+		LOGGER.info("Geocoder stand-in got " + queries.get() + " queries on " + connections.get() + " connections.");
+	}
+
+	/**
+	 * Get the number of queries received so far.
+	 *
+	 * @return queries
+	 */
+	public long getQueries() {
+		return queries.get();
+	}
+
+	/**
+	 * Get the number of connections accepted so far.
+	 *
+	 * @return connections
+	 */
+	public long getConnections() {
+		return connections.get();
+	}
+
+	private class Handler extends SimpleChannelUpstreamHandler {
+
+		@Override
+		public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) {
+			connections.incrementAndGet();
+			openConnections.add(e.getChannel());
+		}
+
+		@Override
+		public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+			final HttpRequest request = (HttpRequest) e.getMessage();
+			final Channel channel = e.getChannel();
+			final HttpResponse response = answer(request);
+			if (response == null) {
+				// Stalled: the client has to time out
+				return;
+			}
+
+			if (latency > 0) {
+				timer.newTimeout(new TimerTask() {
+					@Override
+					public void run(Timeout timeout) {
+						send(channel, request, response);
+					}
+				}, latency, TimeUnit.MILLISECONDS);
+			} else {
+				send(channel, request, response);
+			}
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+			e.getChannel().close();
+		}
+	}
+
+	/**
+	 * Make up the answer to a query.
+	 *
+	 * @param request query
+	 * @return response, null if the query is to be stalled
+	 */
+	private HttpResponse answer(HttpRequest request) {
+		queries.incrementAndGet();
+
+		List<String> addresses = new QueryStringDecoder(request.getUri()).getParameters().get("address");
+		if (addresses == null || addresses.isEmpty()) {
+			return xml(status("INVALID_REQUEST"));
+		}
+
+		final double dice;
+		synchronized (random) {
+			dice = random.nextDouble();
+		}
+		if (dice < errorRate) {
+			return response(HttpResponseStatus.INTERNAL_SERVER_ERROR, "text/plain", "Internal Server Error");
+		} else if (dice < errorRate + overQueryLimitRate) {
+			return xml(status("OVER_QUERY_LIMIT"));
+		} else if (dice < errorRate + overQueryLimitRate + zeroResultsRate) {
+			return xml(status("ZERO_RESULTS"));
+		} else if (dice < errorRate + overQueryLimitRate + zeroResultsRate + stallRate) {
+			return null;
+		}
+		return xml(result(addresses.get(0)));
+	}
+
+	private static String status(String status) {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<GeocodeResponse>\n <status>" + status +
+				"</status>\n</GeocodeResponse>\n";
+	}
+
+	private static String result(String address) {
+		// Somewhere in Romania, always the same for an address
+		final int hash = address.hashCode();
+		final double latitude = 43.7 + ((hash >>> 16) & 0xFFFF) * 4.5 / 0xFFFF;
+		final double longitude = 20.3 + (hash & 0xFFFF) * 9.4 / 0xFFFF;
+
+		return String.format(Locale.US, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<GeocodeResponse>\n" +
+				" <status>OK</status>\n <result>\n  <type>route</type>\n  <formatted_address>%s</formatted_address>\n" +
+				"  <geometry>\n   <location>\n    <lat>%.7f</lat>\n    <lng>%.7f</lng>\n   </location>\n" +
+				"   <location_type>GEOMETRIC_CENTER</location_type>\n  </geometry>\n </result>\n</GeocodeResponse>\n",
+				escape(address), latitude, longitude);
+	}
+
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+
+	private static HttpResponse xml(String body) {
+		return response(HttpResponseStatus.OK, "application/xml; charset=UTF-8", body);
+	}
+
+	private static HttpResponse response(HttpResponseStatus status, String contentType, String body) {
+		HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+		response.setHeader(HttpHeaders.Names.CONTENT_TYPE, contentType);
+		response.setContent(ChannelBuffers.copiedBuffer(body, CharsetUtil.UTF_8));
+		HttpHeaders.setContentLength(response, response.getContent().readableBytes());
+		return response;
+	}
+
+	private static void send(Channel channel, HttpRequest request, HttpResponse response) {
+		final boolean keepAlive = HttpHeaders.isKeepAlive(request);
+		if (keepAlive) {
+			response.setHeader(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+		}
+		ChannelFuture future = channel.write(response);
+		if (!keepAlive) {
+			future.addListener(ChannelFutureListener.CLOSE);
+		}
+	}
+
+	/**
+	 * Run the stand-in until the process is killed.
+	 *
+	 * @param args command line arguments
+	 */
+	public static void main(String[] args) {
+		CmdLineParser parser = new CmdLineParser();
+		CmdLineParser.Option portOption = parser.addIntegerOption('p', "port");
+		CmdLineParser.Option latencyOption = parser.addIntegerOption('l', "latency");
+		CmdLineParser.Option errorRateOption = parser.addDoubleOption("errors");
+		CmdLineParser.Option overQueryLimitRateOption = parser.addDoubleOption("overquerylimit");
+		CmdLineParser.Option zeroResultsRateOption = parser.addDoubleOption("zeroresults");
+		CmdLineParser.Option stallRateOption = parser.addDoubleOption("stall");
+
+		try {
+			parser.parse(args);
+		} catch (CmdLineParser.OptionException e) {
+			LOGGER.severe("Exception while parsing command line arguments: " + e + "\n\nUsage:\n" +
+					" java -cp zipcode-translator-v2.jar GeocoderStandInServer [-p <port>] [-l <latency_ms>]" +
+					" [--errors <rate>] [--overquerylimit <rate>] [--zeroresults <rate>] [--stall <rate>]\n");
+			System.exit(1);
+		}
+
+		final GeocoderStandInServer server = new GeocoderStandInServer(
+				(Integer) parser.getOptionValue(portOption, 8089),
+				(Integer) parser.getOptionValue(latencyOption, 0),
+				(Double) parser.getOptionValue(errorRateOption, 0.0),
+				(Double) parser.getOptionValue(overQueryLimitRateOption, 0.0),
+				(Double) parser.getOptionValue(zeroResultsRateOption, 0.0),
+				(Double) parser.getOptionValue(stallRateOption, 0.0));
+		server.start();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				server.stop();
+			}
+		});
+	}
+}
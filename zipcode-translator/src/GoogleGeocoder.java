@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Geocoder querying the Google Maps geocoding service(or anything answering in its XML format),
+ * within the limits of a rate limiter.
+ * <p>
+ * Connections are kept alive and reused: each response is read to its end and its stream closed,
+ * and the connection is only dropped after a failure. Every request has a connect and a read
+ * timeout, so a stalled geocoder can't hang the run, and the number of requests in flight at once
+ * is bounded. How many idle connections are kept per host is up to http.maxConnections, which
+ * Main.run() sets for the whole process.
+ */
+public class GoogleGeocoder implements Geocoder {
+
+	private static final Logger LOGGER = Logger.getLogger(GoogleGeocoder.class.getName());
+
+	/**
+	 * How many times a query answered with OVER_QUERY_LIMIT or timing out is retried.
+	 */
+	public static final int RETRIES = 5;
+
+	/**
+	 * URL of the geocoder, without the query string.
+	 */
+	private final String requestPrefix;
+
+	private final GeocodeRateLimiter rateLimiter;
+
+	private final int connectTimeout;
+
+	private final int readTimeout;
+
+	/**
+	 * Permits for the requests in flight.
+	 */
+	private final Semaphore inFlight;
+
+	private final LatencyHistogram latencies = Metrics.histogram(Metrics.GEOCODE_HTTP);
+
+	private final AtomicLong timeouts = Metrics.counter(Metrics.GEOCODE_TIMEOUTS);
+
+	private final AtomicLong failures = Metrics.counter(Metrics.GEOCODE_ERRORS);
+
+
+	/**
+	 * @param requestPrefix URL of the geocoder, without the query string
+	 * @param rateLimiter throttles the queries
+	 * @param connectTimeout connect timeout(ms)
+	 * @param readTimeout read timeout(ms)
+	 * @param maxInFlight maximum number of requests in flight at once
+	 */
+	public GoogleGeocoder(String requestPrefix, GeocodeRateLimiter rateLimiter, int connectTimeout, int readTimeout,
+			int maxInFlight) {
+		this.requestPrefix = requestPrefix;
+		this.rateLimiter = rateLimiter;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.inFlight = new Semaphore(maxInFlight, true);
+	}
+
+	/**
+	 * Query the geocoder for the coordinates of an address. Queries answered with OVER_QUERY_LIMIT
+	 * or timing out are retried after a backoff.
+	 *
+	 * @param address search address
+	 * @return GeocodeResult object
+	 * @throws IOException if we have reached the maximum number of queries
+	 */
+	@Override
+	public GeocodeResult geocode(String address) throws IOException {
+		// prepare a URL to the geocoder
+		URL url = new URL(String.format("%s?address=%s&components=country:RO&sensor=false",
+				requestPrefix, URLEncoder.encode(address, "UTF-8")));
+
+		try {
+			for (int attempt = 0; ; attempt++) {
+				rateLimiter.acquire();
+
+				// prepare an HTTP connection to the geocoder
+				HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+				conn.setConnectTimeout(connectTimeout);
+				conn.setReadTimeout(readTimeout);
+				boolean reusable = false;
+
+				inFlight.acquire();
+				final long start = System.nanoTime();
+				try {
+					// open the connection and parse the results while they are read
+					conn.connect();
+					InputStream in = conn.getInputStream();
+					try {
+						final long parseStart = System.nanoTime();
+						GeocodeResult result = GeocodeResponseParser.parse(in, address);
+						Metrics.record(Metrics.GEOCODE_PARSE, parseStart);
+						rateLimiter.onSuccess();
+						reusable = drain(in);
+						return result;
+					} catch (OverQueryLimitException e) {
+						reusable = drain(in);
+						throw e;
+					} finally {
+						in.close();
+					}
+				} catch (OverQueryLimitException e) {
+					rateLimiter.onOverQueryLimit();
+					if (attempt == RETRIES) {
+						LOGGER.warning(e.getMessage());
+						rateLimiter.exhaust();
+						throw e;
+					}
+				} catch (SocketTimeoutException e) {
+					timeouts.incrementAndGet();
+					if (attempt == RETRIES) {
+						LOGGER.warning("Timed out when querying for: " + address);
+						return GeocodeResult.FAILED;
+					}
+				} catch (Exception e) {
+					failures.incrementAndGet();
+					reusable = drain(conn.getErrorStream());
+					return GeocodeResult.FAILED;
+				} finally {
+					latencies.record(System.nanoTime() - start);
+					inFlight.release();
+					if (!reusable) {
+						conn.disconnect();
+					}
+				}
+
+				Metrics.increment(Metrics.GEOCODE_RETRIES);
+				rateLimiter.backoff(attempt);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to query for: " + address);
+		}
+	}
+
+	/**
+	 * Show the latencies of the requests.
+	 */
+	public void showStatistics() {
+		LOGGER.info("Geocoder:\n" +
+			" - " + latencies + "\n" +
+			String.format(" - %d timed out, %d failed\n", timeouts.get(), failures.get()));
+	}
+
+	/**
+	 * Read what's left of a response, so its connection can be kept alive and reused.
+	 *
+	 * @param in response body(can be null)
+	 * @return true if the response has been read to its end
+	 */
+	private static boolean drain(InputStream in) {
+		if (in == null) {
+			return false;
+		}
+		try {
+			try {
+				final byte[] buffer = new byte[4096];
+				while (in.read(buffer) != -1) {
+				}
+				return true;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
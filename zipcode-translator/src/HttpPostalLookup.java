@@ -0,0 +1,135 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.logging.Logger;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Looks ZIP codes up by requesting the Coduri Postale search results directly over HTTP, the
+ * way the findAddressByPostalCode form does, with no browser. The HTML of the results is
+ * streamed through SearchResultsHtmlParser as it's read.
+ * <p>
+ * The search URL is given as a template, {zip} being replaced by the ZIP code, e.g.
+ * <code>http://localhost:8090/search?postalCode={zip}</code>
+ */
+public class HttpPostalLookup implements PostalLookup {
+
+	private static final Logger LOGGER = Logger.getLogger(HttpPostalLookup.class.getName());
+
+	/**
+	 * Placeholder of the ZIP code in the search URL.
+	 */
+	public static final String ZIP_CODE = "{zip}";
+
+	/**
+	 * How many times a search is made before giving up on a ZIP code.
+	 */
+	public static final int ATTEMPTS = 2;
+
+	private final String urlTemplate;
+
+	private final int connectTimeout;
+
+	private final int readTimeout;
+
+
+	/**
+	 * @param urlTemplate search URL, {zip} being replaced by the ZIP code
+	 * @param connectTimeout connect timeout(ms)
+	 * @param readTimeout read timeout(ms)
+	 */
+	public HttpPostalLookup(String urlTemplate, int connectTimeout, int readTimeout) {
+		if (!urlTemplate.contains(ZIP_CODE)) {
+			throw new IllegalArgumentException("Postal search URL has no " + ZIP_CODE + ": " + urlTemplate);
+		}
+		this.urlTemplate = urlTemplate;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	@Override
+	public GeoInfo lookup(String zipCode) throws InterruptedException {
+		Metrics.increment(Metrics.POSTAL_LOOKUPS);
+
+		// In case something goes wrong, try to repeat the procedure once
+		for (int i = 0; i < ATTEMPTS; i++) {
+			final long start = System.nanoTime();
+			try {
+				return search(zipCode);
+			} catch (IOException e) {
+				Metrics.increment(Metrics.POSTAL_ERRORS);
+				LOGGER.warning(e.toString());
+			} catch (IllegalStateException e) {
+				Metrics.increment(Metrics.POSTAL_ERRORS);
+				LOGGER.warning(e.toString());
+			} finally {
+				Metrics.record(Metrics.NAVIGATION, start);
+			}
+			// Back off between attempts only, not before giving up
+			if (i < ATTEMPTS - 1) {
+				Thread.sleep(Math.min(Main.EXCEPTION_SLEEP, Main.EXCEPTION_BACKOFF << i));
+			}
+		}
+
+		throw new IllegalStateException("Could not gather either valid or invalid GeoInfo about ZIP code " + zipCode);
+	}
+
+	@Override
+	public void close() {
+		// Connections are kept alive by HttpURLConnection, nothing to release
+	}
+
+	private GeoInfo search(String zipCode) throws IOException {
+		URL url = new URL(urlTemplate.replace(ZIP_CODE, URLEncoder.encode(zipCode, "UTF-8")));
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setConnectTimeout(connectTimeout);
+		conn.setReadTimeout(readTimeout);
+		boolean reusable = false;
+		try {
+			InputStream in = conn.getInputStream();
+			try {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(in, charset(conn.getContentType())));
+				GeoInfo g = SearchResultsHtmlParser.parse(reader);
+				// Read to the end, so the connection can be kept alive
+				while (reader.read() != -1) {
+				}
+				reusable = true;
+				return g;
+			} finally {
+				in.close();
+			}
+		} finally {
+			if (!reusable) {
+				conn.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Get the charset of a response.
+	 *
+	 * @param contentType Content-Type header(can be null)
+	 * @return its charset, UTF-8 if there's none or it isn't supported
+	 */
+	private static Charset charset(String contentType) {
+		if (contentType != null) {
+			for (String parameter : contentType.split(";")) {
+				parameter = parameter.trim();
+				if (parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+					try {
+						return Charset.forName(parameter.substring(8).replace("\"", "").trim());
+					} catch (IllegalArgumentException e) {
+						break;
+					}
+				}
+			}
+		}
+		return Charsets.UTF_8;
+	}
+}
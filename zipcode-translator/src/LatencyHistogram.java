@@ -0,0 +1,123 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies into logarithmic buckets, each power of two split in 8, so percentiles are
+ * known within 12.5% while the memory stays fixed however many latencies are recorded. Safe to
+ * be recorded into from many threads at once.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Bits of a latency kept below its highest bit.
+	 */
+	private static final int SUB_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray((Long.SIZE - SUB_BITS + 1) * SUB_BUCKETS);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong total = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+
+	/**
+	 * Record a latency.
+	 *
+	 * @param nanos latency(ns)
+	 */
+	public void record(long nanos) {
+		final long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+		buckets.incrementAndGet(bucket(micros));
+		count.incrementAndGet();
+		total.addAndGet(micros);
+
+		long current;
+		while ((current = max.get()) < micros && !max.compareAndSet(current, micros)) {
+		}
+	}
+
+	/**
+	 * Get the number of recorded latencies.
+	 *
+	 * @return count
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Get the average of the recorded latencies.
+	 *
+	 * @return average(ms), 0 if nothing was recorded
+	 */
+	public double getAverage() {
+		final long n = count.get();
+		return n == 0 ? 0 : total.get() / 1000.0 / n;
+	}
+
+	/**
+	 * Get the highest recorded latency.
+	 *
+	 * @return maximum(ms)
+	 */
+	public double getMax() {
+		return max.get() / 1000.0;
+	}
+
+	/**
+	 * Get a percentile of the recorded latencies.
+	 *
+	 * @param percentile between 0 and 100
+	 * @return upper bound(ms) of the bucket holding the percentile, 0 if nothing was recorded
+	 */
+	public double getPercentile(double percentile) {
+		final long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+
+		final long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max.get()) / 1000.0;
+			}
+		}
+		return max.get() / 1000.0;
+	}
+
+	/**
+	 * Describe the recorded latencies.
+	 *
+	 * @return e.g. "120 recorded, average 35.2 ms, p50 31.0 ms, p90 52.0 ms, p99 120.0 ms, maximum 130.3 ms"
+	 */
+	@Override
+	public String toString() {
+		return String.format("%d recorded, average %.1f ms, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, maximum %.1f ms",
+				count.get(), getAverage(), getPercentile(50), getPercentile(90), getPercentile(99), getMax());
+	}
+
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		final int mantissa = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + mantissa;
+	}
+
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		final int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		final long mantissa = bucket % SUB_BUCKETS;
+		return ((SUB_BUCKETS + mantissa + 1) << (exponent - SUB_BITS)) - 1;
+	}
+}
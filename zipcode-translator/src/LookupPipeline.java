@@ -0,0 +1,367 @@
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Staged processing of ZIP codes:
+ * <code>
+ * input -> [zip code queue] -> N postal lookup workers
+ *       -> [geocode queue]  -> M geocoding workers
+ *       -> [write queue]    -> single writer owning the ResultWriter
+ * </code>
+ * All queues are bounded, so a slow stage applies back pressure to the ones before it.
+ * <p>
+ * The lookup stages spend nearly all their time blocked on the network, so they can run on
+ * virtual threads, one per worker, letting thousands of workers wait on the postal site and the
+ * geocoder at once. The number of workers still bounds the lookups in flight, and the geocoder
+ * bounds its own requests. The writer always runs on a platform thread.
+ */
+public class LookupPipeline {
+
+	private static final Logger LOGGER = Logger.getLogger(LookupPipeline.class.getName());
+
+	/**
+	 * Capacity of each queue, per worker consuming from it.
+	 */
+	private static final int QUEUE_CAPACITY_PER_WORKER = 4;
+
+	/**
+	 * How long(ms) a blocked stage waits before checking again whether the pipeline was aborted.
+	 */
+	private static final long POLL_TIMEOUT = 200;
+
+	/**
+	 * Marks the end of the input for a postal lookup worker.
+	 */
+	private static final String END_OF_ZIP_CODES = new String("END");
+
+	/**
+	 * Marks the end of the input for a geocoding worker.
+	 */
+	private static final GeocodeTask END_OF_GEOCODE_TASKS = new GeocodeTask(null, null);
+
+	/**
+	 * Marks the end of the input for the writer.
+	 */
+	private static final LookupResult END_OF_RESULTS = LookupResult.invalid(null);
+
+	private final ResultWriter resultWriter;
+
+	private final ZipGeoIndex zipGeoIndex;
+
+	private final PostalLookup postalLookup;
+
+	private final int postalWorkers;
+
+	private final int geocodeWorkers;
+
+	private final long iterationSleep;
+
+	/**
+	 * Whether the lookup stages run on virtual threads.
+	 */
+	private final boolean virtualThreads;
+
+	private final BlockingQueue<String> zipCodes;
+
+	private final BlockingQueue<GeocodeTask> geocodeTasks;
+
+	private final BlockingQueue<LookupResult> results;
+
+	private ExecutorService postalStage;
+
+	private ExecutorService geocodeStage;
+
+	private ExecutorService writerStage;
+
+	/**
+	 * First fatal error encountered by any stage. Once set, the pipeline stops taking new work.
+	 */
+	private volatile IOException failure;
+
+
+	/**
+	 * @param resultWriter ResultWriter to be used exclusively by the writer stage
+	 * @param zipGeoIndex local index answering before Coduri Postale is asked(can be null)
+	 * @param postalLookup used by the postal lookup workers
+	 * @param postalWorkers number of concurrent postal lookups
+	 * @param geocodeWorkers number of concurrent geocoding lookups
+	 * @param iterationSleep how much(ms) each postal worker waits after processing a ZIP code
+	 * @param virtualThreads true to run the lookup stages on virtual threads, if the JVM has them
+	 */
+	public LookupPipeline(ResultWriter resultWriter, ZipGeoIndex zipGeoIndex, PostalLookup postalLookup,
+			int postalWorkers, int geocodeWorkers, long iterationSleep, boolean virtualThreads) {
+		this.resultWriter = resultWriter;
+		this.zipGeoIndex = zipGeoIndex;
+		this.postalLookup = postalLookup;
+		this.postalWorkers = postalWorkers;
+		this.geocodeWorkers = geocodeWorkers;
+		this.iterationSleep = iterationSleep;
+		this.virtualThreads = virtualThreads;
+
+		zipCodes = new ArrayBlockingQueue<String>(QUEUE_CAPACITY_PER_WORKER * postalWorkers);
+		geocodeTasks = new ArrayBlockingQueue<GeocodeTask>(QUEUE_CAPACITY_PER_WORKER * geocodeWorkers);
+		results = new ArrayBlockingQueue<LookupResult>(QUEUE_CAPACITY_PER_WORKER * (postalWorkers + geocodeWorkers));
+	}
+
+	/**
+	 * Push all ZIP codes through the pipeline and wait for all of them to be written. Returns
+	 * only once every worker has stopped, even if the pipeline was aborted.
+	 *
+	 * @param input ZIP codes to be processed
+	 * @throws IOException if any stage failed(e.g. we have reached the maximum number of queries)
+	 */
+	public void run(ZipCodeReader input) throws IOException {
+		postalStage = newStage("postal-lookup", postalWorkers, virtualThreads);
+		geocodeStage = newStage("geocode", geocodeWorkers, virtualThreads);
+		writerStage = newStage("writer", 1, false);
+
+		for (int i = 0; i < postalWorkers; i++) {
+			postalStage.execute(new PostalWorker());
+		}
+		for (int i = 0; i < geocodeWorkers; i++) {
+			geocodeStage.execute(new GeocodeWorker());
+		}
+		writerStage.execute(new Writer());
+
+		try {
+			String zipCode;
+			while ((zipCode = input.read()) != null) {
+				if (!offer(zipCodes, zipCode)) {
+					break;
+				}
+			}
+			finish(postalStage, zipCodes, END_OF_ZIP_CODES, postalWorkers);
+			finish(geocodeStage, geocodeTasks, END_OF_GEOCODE_TASKS, geocodeWorkers);
+			finish(writerStage, results, END_OF_RESULTS, 1);
+		} catch (InterruptedException e) {
+			abort(new IOException("Interrupted while processing zip codes", e));
+		} catch (IOException e) {
+			abort(e);
+		} finally {
+			postalStage.shutdownNow();
+			geocodeStage.shutdownNow();
+			// Let the writer drain what has already been looked up
+			writerStage.shutdown();
+			// Workers blocked in a lookup that ignores interrupts are waited for, so none of them
+			// is still using the lookup backends or the writer once the caller closes them
+			awaitTermination(postalStage);
+			awaitTermination(geocodeStage);
+			awaitTermination(writerStage);
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Stop the pipeline because of a fatal error. The lookup stages are interrupted, while
+	 * the writer is left to drain what has already been looked up.
+	 *
+	 * @param e cause
+	 */
+	private synchronized void abort(IOException e) {
+		if (failure == null) {
+			LOGGER.severe("Aborting: " + e);
+			failure = e;
+			postalStage.shutdownNow();
+			geocodeStage.shutdownNow();
+		}
+	}
+
+	/**
+	 * Put an item in a queue, waiting for space to become available unless the pipeline is aborted.
+	 *
+	 * @param queue destination
+	 * @param item to be put
+	 * @return true if the item was put, false if the pipeline has been aborted
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private <T> boolean offer(BlockingQueue<T> queue, T item) throws InterruptedException {
+		while (failure == null) {
+			if (queue.offer(item, POLL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Signal all workers of a stage that there is no more input and wait for them to finish.
+	 */
+	private <T> void finish(ExecutorService stage, BlockingQueue<T> queue, T endMarker, int workers) throws InterruptedException {
+		for (int i = 0; i < workers; i++) {
+			if (!offer(queue, endMarker)) {
+				break;
+			}
+		}
+		stage.shutdown();
+		while (!stage.awaitTermination(POLL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+			// Keep waiting
+		}
+	}
+
+	/**
+	 * Wait for a stage to terminate, even if interrupted meanwhile.
+	 */
+	private static void awaitTermination(ExecutorService stage) {
+		boolean interrupted = false;
+		while (!stage.isTerminated()) {
+			try {
+				stage.awaitTermination(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static ExecutorService newStage(String name, int workers, boolean virtual) {
+		if (virtual) {
+			ExecutorService stage = newVirtualThreadStage(name);
+			if (stage != null) {
+				return stage;
+			}
+			LOGGER.warning("Virtual threads are not available on this JVM, " + name + " workers run on platform threads.");
+		}
+		return Executors.newFixedThreadPool(workers,
+				new ThreadFactoryBuilder().setNameFormat(name + "-%d").build());
+	}
+
+	/**
+	 * Create an executor that starts a named virtual thread per task. Virtual threads only exist
+	 * from Java 21 on, so they're looked up reflectively.
+	 *
+	 * @param name prefix of the thread names
+	 * @return ExecutorService or null if the JVM has no virtual threads
+	 */
+	private static ExecutorService newVirtualThreadStage(String name) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, factory);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * ZIP code together with the information from Coduri Postale, waiting to be geocoded.
+	 */
+	private static class GeocodeTask {
+
+		private final String zipCode;
+
+		private final GeoInfo geoInfo;
+
+
+		public GeocodeTask(String zipCode, GeoInfo geoInfo) {
+			this.zipCode = zipCode;
+			this.geoInfo = geoInfo;
+		}
+	}
+
+	/**
+	 * Look up each ZIP code in the local index, or else on Coduri Postale, and hand it over to geocoding or directly to the writer.
+	 */
+	private class PostalWorker implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				String zipCode;
+				while ((zipCode = zipCodes.take()) != END_OF_ZIP_CODES) {
+					GeoInfo local = zipGeoIndex == null ? null : zipGeoIndex.get(zipCode);
+					if (local != null) {
+						offer(geocodeTasks, new GeocodeTask(zipCode, local));
+						continue;
+					}
+
+					try {
+						GeoInfo g = postalLookup.lookup(zipCode);
+
+						if (g != null) {
+							offer(geocodeTasks, new GeocodeTask(zipCode, g));
+						} else {
+							offer(results, LookupResult.invalid(zipCode));
+						}
+					} catch (IllegalStateException e) {
+						offer(results, LookupResult.error(zipCode));
+					}
+
+					Thread.sleep(iterationSleep);
+				}
+			} catch (InterruptedException e) {
+				// Pipeline has been aborted
+			} catch (RuntimeException e) {
+				abort(new IOException(e));
+			}
+		}
+	}
+
+	/**
+	 * Geocode each ZIP code on Google Maps and hand the matching result over to the writer.
+	 */
+	private class GeocodeWorker implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				GeocodeTask task;
+				while ((task = geocodeTasks.take()) != END_OF_GEOCODE_TASKS) {
+					offer(results, Main.getInformationFromGoogleMaps(task.zipCode, task.geoInfo));
+				}
+			} catch (InterruptedException e) {
+				// Pipeline has been aborted
+			} catch (IOException e) {
+				abort(e);
+			} catch (RuntimeException e) {
+				abort(new IOException(e));
+			}
+		}
+	}
+
+	/**
+	 * Single owner of the ResultWriter, so records are never interleaved.
+	 */
+	private class Writer implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					LookupResult result = results.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+					if (result == END_OF_RESULTS) {
+						break;
+					}
+					if (result != null) {
+						resultWriter.write(result);
+					} else if (failure != null) {
+						// Lookup stages have been stopped and everything they produced was written
+						break;
+					} else {
+						resultWriter.flushIfDue();
+					}
+				}
+				resultWriter.checkpoint();
+			} catch (InterruptedException e) {
+				// Pipeline has been aborted
+			} catch (IOException e) {
+				abort(e);
+			}
+		}
+	}
+}
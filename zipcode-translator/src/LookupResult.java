@@ -0,0 +1,106 @@
+public class LookupResult {
+
+	/**
+	 * Terminal state of a ZIP code lookup, each one mapping to a result file.
+	 */
+	public enum Kind {
+		RESULT,
+		INVALID,
+		ERROR
+	}
+
+	private final Kind kind;
+
+	private final String zipCode;
+
+	private final GeoInfo geoInfo;
+
+	private final String street;
+
+
+	private LookupResult(Kind kind, String zipCode, GeoInfo geoInfo, String street) {
+		this.kind = kind;
+		this.zipCode = zipCode;
+		this.geoInfo = geoInfo;
+		this.street = street;
+	}
+
+	/**
+	 * Create a result for a ZIP code that has been successfully geocoded.
+	 *
+	 * @param zipCode ZIP code
+	 * @param g Geographical information object, having coordinates set
+	 * @param street name that matched(can be null if the locality matched)
+	 * @return LookupResult object
+	 */
+	public static LookupResult result(String zipCode, GeoInfo g, String street) {
+		return new LookupResult(Kind.RESULT, zipCode, g, street);
+	}
+
+	/**
+	 * Create a result for a ZIP code that doesn't exist.
+	 *
+	 * @param zipCode ZIP code
+	 * @return LookupResult object
+	 */
+	public static LookupResult invalid(String zipCode) {
+		return new LookupResult(Kind.INVALID, zipCode, null, null);
+	}
+
+	/**
+	 * Create a result for a ZIP code we could not gather information about.
+	 *
+	 * @param zipCode ZIP code
+	 * @return LookupResult object
+	 */
+	public static LookupResult error(String zipCode) {
+		return new LookupResult(Kind.ERROR, zipCode, null, null);
+	}
+
+	/**
+	 * Create a result for a ZIP code found on Coduri Postale whose address couldn't be geocoded.
+	 *
+	 * @param zipCode ZIP code
+	 * @param g Geographical information object, without coordinates
+	 * @return LookupResult object
+	 */
+	public static LookupResult error(String zipCode, GeoInfo g) {
+		return new LookupResult(Kind.ERROR, zipCode, g, null);
+	}
+
+	/**
+	 * Get kind of result.
+	 *
+	 * @return kind
+	 */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Get ZIP code.
+	 *
+	 * @return ZIP code
+	 */
+	public String getZipCode() {
+		return zipCode;
+	}
+
+	/**
+	 * Get geographical information.
+	 *
+	 * @return GeoInfo object or null
+	 */
+	public GeoInfo getGeoInfo() {
+		return geoInfo;
+	}
+
+	/**
+	 * Get street name that matched.
+	 *
+	 * @return street name or null
+	 */
+	public String getStreet() {
+		return street;
+	}
+}
@@ -0,0 +1,300 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.jboss.netty.util.CharsetUtil;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+/**
+ * Answers ZIP code lookups over HTTP from the results of the previous runs:
+ * <code>
+ * GET  /zip/{code}                 -&gt; {"zipCode": "110001", "street": ..., "locality": ..., "county": ..., "latitude": ..., "longitude": ...}
+ * POST /zip  ["110001", "999999"]  -&gt; {"110001": {...}, "999999": null}
+ * </code>
+ * The results file is loaded into a GeoInfoStore, and lookups are answered from it on the I/O
+ * threads, which never block. The file is polled for changes and reloaded in the background,
+ * the new store replacing the old one at once, so a running translator can keep adding to it.
+ */
+public class LookupServer {
+
+	private static final Logger LOGGER = Logger.getLogger(LookupServer.class.getName());
+
+	private static final String PATH = "/zip";
+
+	/**
+	 * How often(s) the results file is checked for changes.
+	 */
+	private static final long RELOAD_INTERVAL = 5;
+
+	/**
+	 * Largest request body accepted.
+	 */
+	private static final int MAX_CONTENT_LENGTH = 1024 * 1024;
+
+	private static final Gson GSON = new GsonBuilder().serializeNulls().create();
+
+	private final int port;
+
+	private final File results;
+
+	private final int zipCodeLength;
+
+	private volatile GeoInfoStore store;
+
+	private long loadedModified;
+
+	private long loadedLength;
+
+	private ServerBootstrap bootstrap;
+
+	private ScheduledExecutorService reloader;
+
+	private Channel channel;
+
+
+	/**
+	 * @param port port to listen on
+	 * @param results results file
+	 * @param zipCodeLength number of digits of the ZIP codes
+	 */
+	public LookupServer(int port, File results, int zipCodeLength) {
+		this.port = port;
+		this.results = results;
+		this.zipCodeLength = zipCodeLength;
+	}
+
+	/**
+	 * Load the results and start listening.
+	 *
+	 * @throws IOException if the results file couldn't be read
+	 */
+	public void start() throws IOException {
+		reload();
+		reloader = Executors.newSingleThreadScheduledExecutor();
+		reloader.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					reload();
+				} catch (IOException e) {
+					LOGGER.warning("Results couldn't be reloaded, still serving the previous ones: " + e);
+				}
+			}
+		}, RELOAD_INTERVAL, RELOAD_INTERVAL, TimeUnit.SECONDS);
+
+		bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(
+				Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+		bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+			@Override
+			public ChannelPipeline getPipeline() {
+				ChannelPipeline pipeline = Channels.pipeline();
+				pipeline.addLast("decoder", new HttpRequestDecoder());
+				pipeline.addLast("aggregator", new HttpChunkAggregator(MAX_CONTENT_LENGTH));
+				pipeline.addLast("encoder", new HttpResponseEncoder());
+				pipeline.addLast("handler", new Handler());
+				return pipeline;
+			}
+		});
+		bootstrap.setOption("child.tcpNoDelay", true);
+		bootstrap.setOption("child.keepAlive", true);
+		bootstrap.setOption("backlog", 1024);
+		channel = bootstrap.bind(new InetSocketAddress(port));
+		LOGGER.info("Lookup server listening on port " + port);
+	}
+
+	/**
+	 * Stop listening and release the threads.
+	 */
+	public void stop() {
+		channel.close().awaitUninterruptibly();
+		reloader.shutdownNow();
+		bootstrap.releaseExternalResources();
+	}
+
+	/**
+	 * Load the results file again if it has changed since it was last loaded.
+	 *
+	 * @throws IOException if the results file couldn't be read
+	 */
+	private void reload() throws IOException {
+		final long modified = results.lastModified();
+		final long length = results.length();
+		if (store != null && modified == loadedModified && length == loadedLength) {
+			return;
+		}
+
+		store = results.exists() ? GeoInfoStore.load(results) : new GeoInfoStore();
+		loadedModified = modified;
+		loadedLength = length;
+	}
+
+	private class Handler extends SimpleChannelUpstreamHandler {
+
+		@Override
+		public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+			final HttpRequest request = (HttpRequest) e.getMessage();
+			send(e.getChannel(), request, answer(request));
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+			e.getChannel().close();
+		}
+	}
+
+	private HttpResponse answer(HttpRequest request) {
+		String path = request.getUri();
+		final int query = path.indexOf('?');
+		if (query >= 0) {
+			path = path.substring(0, query);
+		}
+
+		// Same store for the whole request, even if it's reloaded meanwhile
+		final GeoInfoStore current = store;
+		if (request.getMethod().equals(HttpMethod.GET) && path.startsWith(PATH + "/")) {
+			Entry entry = lookup(current, path.substring(PATH.length() + 1));
+			if (entry == null) {
+				return response(HttpResponseStatus.NOT_FOUND, "{\"error\": \"Unknown zip code\"}");
+			}
+			return response(HttpResponseStatus.OK, GSON.toJson(entry));
+		} else if (request.getMethod().equals(HttpMethod.POST) && path.equals(PATH)) {
+			String[] zipCodes;
+			try {
+				zipCodes = GSON.fromJson(request.getContent().toString(CharsetUtil.UTF_8), String[].class);
+			} catch (JsonParseException e) {
+				zipCodes = null;
+			}
+			if (zipCodes == null) {
+				return response(HttpResponseStatus.BAD_REQUEST, "{\"error\": \"Expected an array of zip codes\"}");
+			}
+			Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+			for (String zipCode : zipCodes) {
+				if (zipCode != null) {
+					entries.put(zipCode, lookup(current, zipCode));
+				}
+			}
+			return response(HttpResponseStatus.OK, GSON.toJson(entries));
+		}
+		return response(HttpResponseStatus.NOT_FOUND, "{\"error\": \"Unknown path\"}");
+	}
+
+	/**
+	 * Look a ZIP code up.
+	 *
+	 * @param store results
+	 * @param zipCode ZIP code string
+	 * @return Entry object or null if the ZIP code isn't known
+	 */
+	private Entry lookup(GeoInfoStore store, String zipCode) {
+		if (zipCode.isEmpty() || zipCode.length() > 9) {
+			return null;
+		}
+		int value = 0;
+		for (int i = 0; i < zipCode.length(); i++) {
+			final char c = zipCode.charAt(i);
+			if (c < '0' || c > '9') {
+				return null;
+			}
+			value = value * 10 + c - '0';
+		}
+
+		final int i = store.indexOf(value);
+		if (i < 0) {
+			return null;
+		}
+		Entry entry = new Entry();
+		entry.zipCode = format(value);
+		entry.street = store.getStreet(i);
+		entry.locality = store.getLocality(i);
+		entry.county = store.getCounty(i);
+		if (!Double.isNaN(store.getLatitude(i)) && !Double.isNaN(store.getLongitude(i))) {
+			entry.latitude = store.getLatitude(i);
+			entry.longitude = store.getLongitude(i);
+		}
+		return entry;
+	}
+
+	/**
+	 * Format a ZIP code, keeping its leading zeros.
+	 *
+	 * @param zipCode value
+	 * @return ZIP code string
+	 */
+	private String format(int zipCode) {
+		char[] chars = new char[Math.max(zipCodeLength, String.valueOf(zipCode).length())];
+		for (int i = chars.length - 1; i >= 0; i--) {
+			chars[i] = (char) ('0' + zipCode % 10);
+			zipCode /= 10;
+		}
+		return new String(chars);
+	}
+
+	private static HttpResponse response(HttpResponseStatus status, String body) {
+		HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+		response.setHeader(HttpHeaders.Names.CONTENT_TYPE, "application/json; charset=UTF-8");
+		response.setContent(ChannelBuffers.copiedBuffer(body, CharsetUtil.UTF_8));
+		HttpHeaders.setContentLength(response, response.getContent().readableBytes());
+		return response;
+	}
+
+	private static void send(Channel channel, HttpRequest request, HttpResponse response) {
+		final boolean keepAlive = HttpHeaders.isKeepAlive(request);
+		if (keepAlive) {
+			response.setHeader(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+		}
+		ChannelFuture future = channel.write(response);
+		if (!keepAlive) {
+			future.addListener(ChannelFutureListener.CLOSE);
+		}
+	}
+
+	/**
+	 * JSON form of a looked up ZIP code.
+	 */
+	private static class Entry {
+
+		String zipCode;
+
+		String street;
+
+		String locality;
+
+		String county;
+
+		Double latitude;
+
+		Double longitude;
+	}
+}
@@ -1,450 +1,723 @@
-import jargs.gnu.CmdLineParser;
-
-import java.io.File;
-import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
-import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLEncoder;
-
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-
-import org.openqa.selenium.By;
-import org.openqa.selenium.WebElement;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-
-import com.opera.core.systems.OperaDriver;
-import com.opera.core.systems.OperaDriver.PrivateData;
-
-public class Main {
-	
-	private static final Logger LOGGER = Logger.getLogger(Main.class.getName());
-	
-	/**
-	 * File with input data.
-	 */
-	private static File inputFile;
-	
-	/**
-	 * How much to wait(ms) after processed a ZIP code before moving on to the next iteration.
-	 */
-	private static long iterationSleep;
-	
-	/**
-	 * Address of 'coduripostale.ro'.
-	 */
-	public static final String CODURI_POSTALE = "http://www.posta-romana.ro/posta-romana/servicii-online/Coduri-postale.html";
-	
-	/**
-	 * Google Maps URL that we'll be querying for doing the geocoding. Response format will be XML.
-	 */
-	public static final String GEOCODER_REQUEST_PREFIX = "http://maps.google.com/maps/api/geocode/xml";
-	
-	/**
-	 * When we encounter an exception when dealing with a web-site, we are waiting this timeout,
-	 * before moving on.
-	 */
-	public static final long EXCEPTION_SLEEP = 5000;
-
-	/**
-	 * Result writer.
-	 */
-	private static ResultWriter resultWriter;
-	
-	
-	public static void main(String[] args) throws IOException {
-		getCommandLineArguments(args);
-
-		run();
-	}
-	
-	/**
-	 * Run algorithm for retrieving information.
-	 * <code>
-	 * for each ZIP code
-	 *   go to CODURI_POSTALE and get GeoInfo
-	 *   query GoogleMaps for coordinates
-	 *   write results to file 
-	 * </code>
-	 * 
-	 * @throws IOException if something went wrong during write
-	 */
-	private static void run() throws IOException {
-		resultWriter = new ResultWriter();
-		
-		for (String zipCode : new InputData(inputFile).getZipCodes()) {
-			OperaDriver driver = getOperaDriver();
-			try {
-				try {
-					GeoInfo g = getInformationFromCoduriPostale(driver, zipCode);
-					
-					if (g != null) {
-						getInformationFromGoogleMaps(zipCode, g);
-					} else {
-						resultWriter.writeInvalid(zipCode);
-					}
-				} catch (IllegalStateException e) {
-					resultWriter.writeError(zipCode, null, null);
-				}
-			} finally {
-				driver.quit();
-			}
-			
-			sleep(iterationSleep);
-		}
-		resultWriter.showSummary();
-	}
-	
-	/**
-	 * Retrieve coordinates info from Google Maps for this GeoInfo. After the first match
-	 * we're going to return immediately.
-	 * 
-	 * @param zipCode ZIP code
-	 * @param g GeoInfo object we want to geocode 
-	 * @throws IOException if something goes wrong during I/O or we have reached the maximum number of queries
-	 */
-	private static void getInformationFromGoogleMaps(String zipCode, GeoInfo g) throws IOException {
-		
-		final String county = g.getCounty();
-		final String locality = g.getLocality();
-
-		List<String> list = new ArrayList<String>();
-		if (g.getStreets() != null) {
-			list.addAll(g.getStreets());
-		}
-		list.add(locality);
-		
-		for (int j = 0; j < list.size(); j++) {
-			final String street = j == list.size() - 1 ? null : list.get(j);				
-			final String address = getSearchAddress(county, locality, street);
-			
-			try {
-				if (geocode(address, g)) {
-					resultWriter.writeResult(zipCode, g, street);
-					break;
-				}
-			} catch (Exception e) {
-				LOGGER.warning(e.toString());
-				if (e.getMessage().startsWith("Maximum number of queries reached!")) {
-					resultWriter.showSummary();
-					throw new IOException(e);
-				}
-			}
-		}
-	}
-			
-	private static boolean geocode(String address, GeoInfo g) throws IOException, MalformedURLException, XPathExpressionException, UnsupportedEncodingException {
-		// prepare a URL to the geocoder
-		//LOGGER.info("Querying for: " + address);
-	    URL url = new URL(String.format("%s?address=%s&components=country:RO&sensor=false",
-	    		GEOCODER_REQUEST_PREFIX, URLEncoder.encode(address, "UTF-8")));
-	    
-	    // prepare an HTTP connection to the geocoder
-	    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-	    
-	    Document geocoderResultDocument = null;
-	    try {
-	      // open the connection and get results as InputSource.
-	      conn.connect();
-	      InputSource geocoderResultInputSource = new InputSource(conn.getInputStream());
-
-	      // read result and parse into XML Document
-	      geocoderResultDocument = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(geocoderResultInputSource);
-	    } catch (Exception e) {
-	    	return false;
-	    } finally {
-	      conn.disconnect();
-	    }
-	    
-	    // prepare XPath
-	    XPath xpath = XPathFactory.newInstance().newXPath();
-	    
-	    NodeList resultNodeList = (NodeList) xpath.evaluate("/GeocodeResponse/status", geocoderResultDocument, XPathConstants.NODESET);
-	    if (resultNodeList.getLength() > 0) {
-	    	Node node = resultNodeList.item(0);
-	    	final String status = node.getTextContent(); 
-	    	if (status.equals("OK")) {
-	    		// Move on
-	    	} else if (status.equals("OVER_QUERY_LIMIT")) {
-	    		LOGGER.warning("Maximum number of queries reached! Limit is 2500 queries / 24 h.");
-	    		throw new IOException("Maximum number of queries reached! Limit is 2500 queries / 24 h.");
-	    	} else {
-	    		LOGGER.warning(String.format("%s returned when querying for: ", status, address));
-	    		return false;
-	    	}
-	    } else {
-	    	LOGGER.warning("GoogleMaps's response contains no status!");
-	    	return false;
-	    }
-	    
-	    // extract the coordinates of the first result
-	    resultNodeList = (NodeList) xpath.evaluate("/GeocodeResponse/result[1]/geometry/location/*", geocoderResultDocument, XPathConstants.NODESET);
-	    for(int i = 0; i < resultNodeList.getLength(); ++i) {
-	      Node node = resultNodeList.item(i);
-	      final String nodeName = node.getNodeName();
-	      
-	      if (nodeName.equals("lat")) {
-	    	  g.setLatitude(node.getTextContent());
-	      }
-	      if (nodeName.equals("lng")) {
-	    	  g.setLongitude(node.getTextContent());
-	      }
-	      
-	      if (g.hasCoordinates()) {
-	    	  return true;
-	      }
-	    }
-	   
-	    
-	    return g.hasCoordinates();
-	}
-	
-	/**
-	 * Get the string that we'll be searching on Google Maps.
-	 * 
-	 * @param county name
-	 * @param locality name
-	 * @param street name(can be null)
-	 * @return address that we'll search on Google Maps
-	 */
-	private static String getSearchAddress(String county, String locality, String street) {
-		// Order of search strings matters. The importance level decreases from left to
-		// right, thus the most accurate element has to be first.
-		String search;
-		// We are dealing with a small locality
-		if (street == null) {
-			search = locality + " " + county;
-		} else {
-			search = cleanupStreetName(street) + " " + locality;
-		}
-
-		return search;
-	}
-	
-	/**
-	 * Return a geographical information object containing the county, locality and street(s) 
-	 * information corresponding to the provided ZIP code.
-	 * 
-	 * @param driver OperaDriver
-	 * @param zipCode ZIP code
-	 * @return GeoInfo object if successful information retrieved or null if ZIP code is invalid
-	 * @throws IllegalStateException if we could not gather information about this ZIP code
-	 */
-	private static GeoInfo getInformationFromCoduriPostale(OperaDriver driver, String zipCode) {
-		driver.navigate().to(CODURI_POSTALE);
-
-		// In case something goes wrong, try to repeat the procedure once
-		for (int i = 0; i < 2; i++) {
-			try {
-				//LOGGER.info("Checking zip code: " + zipCode);
-		
-				WebElement el = driver.findElementByLinkText("Cautare dupa cod postal");
-				el.click();
-				
-				el = driver.findElementById("postalCode");
-				el.clear();
-				el.sendKeys(zipCode);
-				
-				el = driver.findElementByXPath("//input[contains(@onclick, 'findAddressByPostalCode')]");
-				el.click();
-				
-				// Wait for results to be displayed
-				Thread.sleep(500);
-				
-				el = driver.findElementById("searchResults");
-				
-				return getGeoInfoFromCoduriPostaleSearchResult(el);
-			} catch (Exception e) {
-				LOGGER.warning(e.toString());
-				e.printStackTrace();
-				
-				handleNavigationException(driver, CODURI_POSTALE);
-			}
-		}
-		
-		throw new IllegalStateException("Could not gather either valid or invalid GeoInfo about ZIP code " + zipCode);
-	}
-	
-	/**
-	 * Parse the WebElement representing the search results div from coduri postale.
-	 * 
-	 * @param el WebElement representing the search results div
-	 * @return GeoInfo object if we successfully retrieved data or null if not
-	 */
-	private static GeoInfo getGeoInfoFromCoduriPostaleSearchResult(WebElement el) {
-		GeoInfo g = new GeoInfo();
-		WebElement table = (el.findElements(By.tagName("table"))).get(0);
-		
-		List<WebElement> rows = table.findElements(By.tagName("tr"));
-		for (int i = 0; i < rows.size(); i++) {
-			// Skip table header
-			if (i > 0) {
-				String text;
-				try {
-					text = (rows.get(i).findElements(By.tagName("td"))).get(1).getText();
-				} catch (IndexOutOfBoundsException e) {
-					// No valid information has been returned
-					return null;
-				}
-				getCountyLocalityAndStreets(g, text);
-			}
-		}
-		
-		return g;
-	}
-	
-	/**
-	 * Parse search result text and extract relevant county, locality and
-	 * street(s) information.
-	 * 
-	 * @param g GeoInfo object
-	 * @param search result text
-	 */
-	private static void getCountyLocalityAndStreets(GeoInfo g, String text) {
-		text = translateToEnglish(text);
-		
-		// Format is: Locality(County), Street
-		// Street is optional
-		Pattern p = Pattern.compile("(.+)\\((.+)\\),(.+)?");
-		Matcher m = p.matcher(text);
-		if (m.find()) {
-			g.setLocality(m.group(1));
-			g.setCounty(m.group(2));
-			// If present and valid
-			if (m.group(3) != null && m.group(3).length() > 1) {
-				g.addStreet(m.group(3));
-			}
-		}
-	}
-	
-	/**
-	 * Translate the given text that might contain Romanian characters into
-	 * an English only text.
-	 * 
-	 * @param text to be translated
-	 * @return translated text
-	 */
-	private static String translateToEnglish(String text) {
-	    try {
-            text = text.replaceAll("\u0103", "a");
-            text = text.replaceAll("\u00EE", "i");
-            text = text.replaceAll("\u00E2", "a");
-            text = text.replaceAll("\u015F", "s");
-            text = text.replaceAll("\u0219", "s");
-            text = text.replaceAll("\u021B", "t");
-            text = text.replaceAll("\u0163", "t");
-            
-            text = text.replaceAll("\u0102", "A");
-            text = text.replaceAll("\u00CE", "I");
-            text = text.replaceAll("\u00C2", "A");
-            text = text.replaceAll("\u0218", "S");
-            text = text.replaceAll("\u015E", "S");
-            text = text.replaceAll("\u021A", "T");
-            text = text.replaceAll("\u0162", "T");
-	    } catch (Exception e) {};
-        return text;
-	}
-	
-	/**
-	 * Cleanup street name for polluting elements to make it usable for searching. 
-	 * 
-	 * @param name Dirty(db raw) street name
-	 * @return clean street name
-	 */
-	private static String cleanupStreetName(String name) {
-		int pos;
-		
-		for (String str : new String[]{" nr.", " bl."}) {
-			pos = name.indexOf(str);
-			if (pos != -1) {
-				name = name.substring(0, pos);
-			}
-		}
-		
-		return name;
-	}
-	
-	/**
-	 * Wrapper for sleep().
-	 * 
-	 * @param millis to sleep
-	 */
-	public static void sleep(long millis) {
-		try {
-			Thread.sleep(millis);
-		} catch (InterruptedException e) {}
-	}
-	
-	/**
-	 * When a driver exception is thrown while navigating on a web-site, we load opera:blank
-	 * and wait a timeout, before continuing.
-	 * 
-	 * @param driver OperaDriver instance
-	 * @param url to be loaded after the timeout has passed
-	 */
-	private static void handleNavigationException(OperaDriver driver, String url) {
-		driver.navigate().to("opera:blank");
-		sleep(EXCEPTION_SLEEP);
-		driver.navigate().to(url);
-	}
-	
-	/**
-	 * Get an OperaDriver instance properly configured for our use cases.
-	 * 
-	 * @return OperaDriver instance
-	 */
-	private static OperaDriver getOperaDriver() {
-		OperaDriver driver = new OperaDriver();
-		
-		// Use an implicit wait(i.e. poll the DOM for an amount of time when
-		// searching for elements, if they aren't immediately available)
-		driver.manage().timeouts().implicitlyWait(1, TimeUnit.SECONDS);
-		
-		// Clean the browser
-		driver.utils().clearPrivateData(PrivateData.ALL);
-		
-		return driver;
-	}
-	
-	/**
-	 * Parse command line arguments and extract relevant data.
-	 * 
-	 * @param args Command line arguments
-	 */
-	private static void getCommandLineArguments(String[] args) {
-		// Each option has a value
-		if (args.length != 4) {
-			LOGGER.severe("Lacking or incomplete command line arguments\n\nUsage:\n" +
-					" java -jar zipcode-translator-v2.jar -i <input_file> -s <seconds_to_sleep>\n");
-			System.exit(1);
-		}
-		
-		CmdLineParser parser = new CmdLineParser();
-		CmdLineParser.Option inputFileOption = parser.addStringOption('i', "inputfile");
-		CmdLineParser.Option iterationSleepOption = parser.addStringOption('s', "iterationsleep");
-		
-		try {
-			parser.parse(args);
-		} catch (CmdLineParser.OptionException e) {
-			LOGGER.severe("Exception while parsing command line arguments: " + e);
-			System.exit(1);
-		}
-		
-		inputFile = new File((String)parser.getOptionValue(inputFileOption));
-		iterationSleep = 1000 * Long.parseLong((String)parser.getOptionValue(iterationSleepOption));
-	}
+import jargs.gnu.CmdLineParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+
+import com.opera.core.systems.OperaDriver;
+import com.opera.core.systems.OperaDriver.PrivateData;
+
+public class Main {
+	
+	private static final Logger LOGGER = Logger.getLogger(Main.class.getName());
+	
+	/**
+	 * File with input data.
+	 */
+	private static File inputFile;
+	
+	/**
+	 * Number of digits of a valid ZIP code.
+	 */
+	private static int zipCodeLength;
+	
+	/**
+	 * How much to wait(ms) after processed a ZIP code before moving on to the next iteration.
+	 */
+	private static long iterationSleep;
+	
+	/**
+	 * Number of concurrent lookups on 'coduripostale.ro'.
+	 */
+	private static int postalWorkers;
+	
+	/**
+	 * Number of concurrent geocoding lookups on Google Maps.
+	 */
+	private static int geocodeWorkers;
+	
+	/**
+	 * Maximum number of browser sessions kept open.
+	 */
+	private static int browserSessions;
+	
+	/**
+	 * Number of lookups after which a browser session is replaced.
+	 */
+	private static int browserSessionUses;
+	
+	/**
+	 * Address of 'coduripostale.ro'.
+	 */
+	public static final String CODURI_POSTALE = "http://www.posta-romana.ro/posta-romana/servicii-online/Coduri-postale.html";
+	
+	/**
+	 * Div of the Coduri Postale search results.
+	 */
+	private static final By SEARCH_RESULTS = By.id("searchResults");
+	
+	/**
+	 * Table of the search results, present once they're displayed.
+	 */
+	private static final By SEARCH_RESULTS_TABLE = By.tagName("table");
+	
+	/**
+	 * Google Maps URL that we'll be querying for doing the geocoding by default. Response format will be XML.
+	 */
+	public static final String GEOCODER_REQUEST_PREFIX = "http://maps.google.com/maps/api/geocode/xml";
+	
+	/**
+	 * When we encounter an exception when dealing with a web-site, we are waiting before moving on,
+	 * at first EXCEPTION_BACKOFF, doubled with each further attempt up to EXCEPTION_SLEEP.
+	 */
+	public static final long EXCEPTION_SLEEP = 5000;
+	
+	/**
+	 * First wait after an exception when dealing with a web-site.
+	 */
+	public static final long EXCEPTION_BACKOFF = 500;
+
+	/**
+	 * Result writer.
+	 */
+	private static ResultWriter resultWriter;
+	
+	/**
+	 * Number of pending records that makes the result writer flush.
+	 */
+	private static int flushRecords;
+	
+	/**
+	 * Time(ms) after which the result writer flushes pending records.
+	 */
+	private static long flushInterval;
+	
+	/**
+	 * When the result writer forces written records to the disk.
+	 */
+	private static ResultWriter.SyncPolicy syncPolicy;
+	
+	/**
+	 * Whether the lookup stages run on virtual threads.
+	 */
+	private static boolean virtualThreads;
+	
+	/**
+	 * Number of failed attempts after which a ZIP code is parked instead of retried.
+	 */
+	private static int maxAttempts;
+	
+	/**
+	 * Number of geocoding results kept in memory by the geocode cache.
+	 */
+	private static int geocodeCacheCapacity;
+	
+	/**
+	 * Persistent cache of geocoding results.
+	 */
+	private static GeocodeCache geocodeCache;
+	
+	/**
+	 * Maximum rate of geocoding queries(requests per second).
+	 */
+	private static double geocodeRate;
+	
+	/**
+	 * Maximum number of geocoding queries per day.
+	 */
+	private static int geocodeDailyBudget;
+	
+	/**
+	 * URL of the geocoder, without the query string.
+	 */
+	private static String geocoderUrl;
+	
+	/**
+	 * Connect timeout(ms) of the geocoding requests.
+	 */
+	private static int geocoderConnectTimeout;
+	
+	/**
+	 * Read timeout(ms) of the geocoding requests.
+	 */
+	private static int geocoderReadTimeout;
+	
+	/**
+	 * Maximum number of geocoding requests in flight at once.
+	 */
+	private static int geocoderMaxInFlight;
+	
+	/**
+	 * Geocoder used for all the addresses.
+	 */
+	private static Geocoder geocoder;
+	
+	/**
+	 * ZIP-GEO or saved index files to build the local index from(empty if there is no local index).
+	 */
+	private static List<File> zipGeoFiles;
+	
+	/**
+	 * Where to save the local index in its compact form(can be null).
+	 */
+	private static File zipGeoIndexFile;
+	
+	/**
+	 * Binary index file the results are exported to at the end of the run, if any.
+	 */
+	private static File coordinatesIndexFile;
+	
+	/**
+	 * Port the results are served on, or null to run the translation.
+	 */
+	private static Integer serverPort;
+	
+	/**
+	 * Shard of the ZIP codes processed by this run.
+	 */
+	private static Shard shard = Shard.ALL;
+	
+	/**
+	 * Whether to merge the result files of the shards instead of running the translation.
+	 */
+	private static boolean merge;
+	
+	/**
+	 * Seconds between two reports of the metrics, 0 for no periodic report.
+	 */
+	private static int metricsInterval;
+	
+	/**
+	 * Waits for the Coduri Postale pages to be ready.
+	 */
+	private static PageReadiness pageReadiness;
+	
+	/**
+	 * Search URL of Coduri Postale, for looking ZIP codes up over HTTP instead of in a browser, or null.
+	 */
+	private static String postalUrl;
+	
+	/**
+	 * Connect timeout(ms) of the postal lookup requests over HTTP.
+	 */
+	private static int postalConnectTimeout;
+	
+	/**
+	 * Read timeout(ms) of the postal lookup requests over HTTP.
+	 */
+	private static int postalReadTimeout;
+	
+	
+	public static void main(String[] args) throws IOException {
+		getCommandLineArguments(args);
+
+		if (serverPort != null) {
+			serve();
+		} else if (merge) {
+			new ShardMerger(ResultWriter.directory, maxAttempts).merge();
+		} else {
+			run();
+		}
+	}
+	
+	/**
+	 * Serve the results over HTTP until the process is killed.
+	 * 
+	 * @throws IOException if the results couldn't be read
+	 */
+	private static void serve() throws IOException {
+		final LookupServer server = new LookupServer(serverPort, ResultWriter.results, zipCodeLength);
+		server.start();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				server.stop();
+			}
+		});
+	}
+	
+	/**
+	 * Run algorithm for retrieving information.
+	 * <code>
+	 * for each ZIP code
+	 *   go to CODURI_POSTALE and get GeoInfo
+	 *   query GoogleMaps for coordinates
+	 *   write results to file 
+	 * </code>
+	 * Each of the steps is a stage of a LookupPipeline, so ZIP codes are processed concurrently.
+	 * 
+	 * @throws IOException if something went wrong during write
+	 */
+	private static void run() throws IOException {
+		// Idle connections kept alive per host by every HttpURLConnection of the process, the
+		// geocoder's and the http postal lookup's alike. Only read when the first connection is
+		// made, hence set before any.
+		if (System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections", String.valueOf(Math.max(geocoderMaxInFlight, postalWorkers)));
+		}
+		
+		resultWriter = new ResultWriter(flushRecords, flushInterval, syncPolicy);
+		ProgressJournal progressJournal = ProgressJournal.open(shard, maxAttempts);
+		resultWriter.setProgressJournal(progressJournal);
+		geocodeCache = new GeocodeCache(ResultWriter.file("geocode-cache", shard), geocodeCacheCapacity);
+		resultWriter.setGeocodeCache(geocodeCache);
+		GeocodeRateLimiter geocodeRateLimiter = new GeocodeRateLimiter(geocodeRate, geocodeDailyBudget,
+				ResultWriter.file("geocode-quota", shard));
+		GoogleGeocoder googleGeocoder = new GoogleGeocoder(geocoderUrl, geocodeRateLimiter, geocoderConnectTimeout,
+				geocoderReadTimeout, geocoderMaxInFlight);
+		DeduplicatingGeocoder deduplicatingGeocoder = new DeduplicatingGeocoder(
+				new CachingGeocoder(googleGeocoder, geocodeCache));
+		geocoder = deduplicatingGeocoder;
+		
+		ZipGeoIndex zipGeoIndex = null;
+		if (!zipGeoFiles.isEmpty()) {
+			zipGeoIndex = ZipGeoIndex.load(zipGeoFiles);
+			if (zipGeoIndexFile != null) {
+				zipGeoIndex.save(zipGeoIndexFile);
+			}
+		}
+		
+		PostalLookup postalLookup;
+		if (postalUrl != null) {
+			postalLookup = new HttpPostalLookup(postalUrl, postalConnectTimeout, postalReadTimeout);
+		} else {
+			postalLookup = new BrowserPostalLookup(
+					new OperaDriverPool(CODURI_POSTALE, browserSessions, browserSessionUses));
+		}
+		LookupPipeline pipeline = new LookupPipeline(resultWriter, zipGeoIndex, postalLookup, postalWorkers, geocodeWorkers,
+				iterationSleep, virtualThreads);
+		ZipCodeReader zipCodes = new InputData(inputFile, zipCodeLength, shard, progressJournal).getZipCodes();
+		Metrics.start(metricsInterval);
+		try {
+			pipeline.run(zipCodes);
+		} finally {
+			zipCodes.close();
+			postalLookup.close();
+			googleGeocoder.showStatistics();
+			deduplicatingGeocoder.showStatistics();
+			resultWriter.close();
+			resultWriter.showSummary();
+			progressJournal.close();
+			geocodeCache.close();
+			geocodeRateLimiter.close();
+			Metrics.stop();
+		}
+		
+		if (coordinatesIndexFile != null) {
+			ZipCoordinatesIndex.export(ResultWriter.results, coordinatesIndexFile, zipCodeLength);
+		}
+	}
+	
+	/**
+	 * Retrieve coordinates info from Google Maps for this GeoInfo. After the first match
+	 * we're going to return immediately.
+	 * 
+	 * @param zipCode ZIP code
+	 * @param g GeoInfo object we want to geocode 
+	 * @return result to be written, an error if no coordinates were found
+	 * @throws IOException if something goes wrong during I/O or we have reached the maximum number of queries
+	 */
+	static LookupResult getInformationFromGoogleMaps(String zipCode, GeoInfo g) throws IOException {
+		
+		final String county = g.getCounty();
+		final String locality = g.getLocality();
+
+		List<String> list = new ArrayList<String>();
+		if (g.getStreets() != null) {
+			list.addAll(g.getStreets());
+		}
+		list.add(locality);
+		
+		for (int j = 0; j < list.size(); j++) {
+			final String street = j == list.size() - 1 ? null : list.get(j);				
+			final String address = getSearchAddress(county, locality, street);
+			
+			try {
+				if (geocode(address, g)) {
+					return LookupResult.result(zipCode, g, street);
+				}
+			} catch (InterruptedIOException e) {
+				throw e;
+			} catch (OverQueryLimitException e) {
+				throw e;
+			} catch (Exception e) {
+				LOGGER.warning(e.toString());
+			}
+		}
+		
+		// Written and journaled like any failure, so a ZIP code that never geocodes gets parked
+		return LookupResult.error(zipCode, g);
+	}
+			
+	/**
+	 * Geocode an address and set the coordinates on the GeoInfo object.
+	 * 
+	 * @param address search address
+	 * @param g GeoInfo object we want to geocode
+	 * @return true if coordinates have been found
+	 * @throws IOException if something goes wrong during I/O or we have reached the maximum number of queries
+	 */
+	private static boolean geocode(String address, GeoInfo g) throws IOException {
+		GeocodeResult result = geocoder.geocode(address);
+		
+		if (result.isFound()) {
+			g.setLatitude(result.getLatitude());
+			g.setLongitude(result.getLongitude());
+		}
+		return result.isFound();
+	}
+	
+	/**
+	 * Get the string that we'll be searching on Google Maps.
+	 * 
+	 * @param county name
+	 * @param locality name
+	 * @param street name, already cleaned up(can be null)
+	 * @return address that we'll search on Google Maps
+	 */
+	static String getSearchAddress(String county, String locality, String street) {
+		// Order of search strings matters. The importance level decreases from left to
+		// right, thus the most accurate element has to be first.
+		String search;
+		// We are dealing with a small locality
+		if (street == null) {
+			search = locality + " " + county;
+		} else {
+			search = street + " " + locality;
+		}
+
+		return search;
+	}
+	
+	/**
+	 * Return a geographical information object containing the county, locality and street(s) 
+	 * information corresponding to the provided ZIP code.
+	 * 
+	 * @param session browser session from the pool, positioned on CODURI_POSTALE
+	 * @param zipCode ZIP code
+	 * @return GeoInfo object if successful information retrieved or null if ZIP code is invalid
+	 * @throws IllegalStateException if we could not gather information about this ZIP code
+	 */
+	static GeoInfo getInformationFromCoduriPostale(OperaDriverPool.Session session, String zipCode) {
+		final OperaDriver driver = session.getDriver();
+		Metrics.increment(Metrics.POSTAL_LOOKUPS);
+
+		// In case something goes wrong, try to repeat the procedure once
+		for (int i = 0; i < 2; i++) {
+			try {
+				//LOGGER.info("Checking zip code: " + zipCode);
+				long start = System.nanoTime();
+		
+				WebElement el = pageReadiness.find(driver, By.linkText("Cautare dupa cod postal"));
+				el.click();
+				
+				el = pageReadiness.find(driver, By.id("postalCode"));
+				el.clear();
+				el.sendKeys(zipCode);
+				
+				final String previous = PageReadiness.text(driver, SEARCH_RESULTS, SEARCH_RESULTS_TABLE);
+				el = pageReadiness.find(driver, By.xpath("//input[contains(@onclick, 'findAddressByPostalCode')]"));
+				el.click();
+				Metrics.record(Metrics.NAVIGATION, start);
+				
+				// Wait for results to be displayed
+				start = System.nanoTime();
+				el = pageReadiness.awaitResults(driver, SEARCH_RESULTS, SEARCH_RESULTS_TABLE, previous);
+				Metrics.record(Metrics.RESULTS_WAIT, start);
+				
+				return getGeoInfoFromCoduriPostaleSearchResult(el);
+			} catch (Exception e) {
+				Metrics.increment(Metrics.POSTAL_ERRORS);
+				LOGGER.warning(e.toString());
+				e.printStackTrace();
+				
+				handleNavigationException(session, CODURI_POSTALE, i);
+				if (Thread.currentThread().isInterrupted()) {
+					// Pipeline has been aborted, don't retry
+					break;
+				}
+			}
+		}
+		
+		throw new IllegalStateException("Could not gather either valid or invalid GeoInfo about ZIP code " + zipCode);
+	}
+	
+	/**
+	 * Parse the WebElement representing the search results div from coduri postale.
+	 * 
+	 * @param el WebElement representing the search results div
+	 * @return GeoInfo object if we successfully retrieved data or null if not
+	 */
+	private static GeoInfo getGeoInfoFromCoduriPostaleSearchResult(WebElement el) {
+		GeoInfo g = new GeoInfo();
+		WebElement table = (el.findElements(By.tagName("table"))).get(0);
+		
+		List<WebElement> rows = table.findElements(By.tagName("tr"));
+		for (int i = 0; i < rows.size(); i++) {
+			// Skip table header
+			if (i > 0) {
+				String text;
+				try {
+					text = (rows.get(i).findElements(By.tagName("td"))).get(1).getText();
+				} catch (IndexOutOfBoundsException e) {
+					// No valid information has been returned
+					return null;
+				}
+				getCountyLocalityAndStreets(g, text);
+			}
+		}
+		
+		return g;
+	}
+	
+	/**
+	 * Parse search result text and extract relevant county, locality and
+	 * street(s) information.
+	 * 
+	 * @param g GeoInfo object
+	 * @param search result text
+	 */
+	static void getCountyLocalityAndStreets(GeoInfo g, String text) {
+		// Format is: Locality(County), Street
+		// Street is optional
+		SearchResultParser.parse(g, text);
+	}
+	
+	/**
+	 * Translate the given text that might contain Romanian characters into
+	 * an English only text.
+	 * 
+	 * @param text to be translated
+	 * @return translated text
+	 */
+	static String translateToEnglish(String text) {
+		return TextNormalizer.fold(text);
+	}
+	
+	/**
+	 * Cleanup street name for polluting elements to make it usable for searching. 
+	 * 
+	 * @param name Dirty(db raw) street name
+	 * @return clean street name
+	 */
+	static String cleanupStreetName(String name) {
+		int pos;
+		
+		for (String str : new String[]{" nr.", " bl."}) {
+			pos = name.indexOf(str);
+			if (pos != -1) {
+				name = name.substring(0, pos);
+			}
+		}
+		
+		return name;
+	}
+	
+	/**
+	 * Wrapper for sleep(). If interrupted, it returns early with the interrupt flag set again,
+	 * so the caller can still tell.
+	 * 
+	 * @param millis to sleep
+	 */
+	public static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * When a driver exception is thrown while navigating on a web-site, we load opera:blank
+	 * and back off, before continuing. The browser session is marked as failed, so that
+	 * the pool replaces it once the lookup is done.
+	 * 
+	 * @param session browser session from the pool
+	 * @param url to be loaded after the timeout has passed
+	 * @param attempt number of failed attempts before this one, starting with 0
+	 */
+	private static void handleNavigationException(OperaDriverPool.Session session, String url, int attempt) {
+		session.markFailed();
+		
+		final OperaDriver driver = session.getDriver();
+		driver.navigate().to("opera:blank");
+		sleep(Math.min(EXCEPTION_SLEEP, EXCEPTION_BACKOFF << Math.min(attempt, 16)));
+		driver.navigate().to(url);
+	}
+	
+	/**
+	 * Get an OperaDriver instance properly configured for our use cases.
+	 * 
+	 * @return OperaDriver instance
+	 */
+	static OperaDriver getOperaDriver() {
+		final long start = System.nanoTime();
+		OperaDriver driver = new OperaDriver();
+		
+		// No implicit wait: elements that might not be available yet are waited for by
+		// pageReadiness, so failed lookups return at once
+		driver.manage().timeouts().implicitlyWait(0, TimeUnit.SECONDS);
+		
+		// Clean the browser
+		driver.utils().clearPrivateData(PrivateData.ALL);
+		
+		Metrics.record(Metrics.BROWSER_START, start);
+		return driver;
+	}
+	
+	/**
+	 * Parse command line arguments and extract relevant data.
+	 * 
+	 * @param args Command line arguments
+	 */
+	private static void getCommandLineArguments(String[] args) {
+		CmdLineParser parser = new CmdLineParser();
+		CmdLineParser.Option inputFileOption = parser.addStringOption('i', "inputfile");
+		CmdLineParser.Option iterationSleepOption = parser.addStringOption('s', "iterationsleep");
+		CmdLineParser.Option postalWorkersOption = parser.addIntegerOption('p', "postalworkers");
+		CmdLineParser.Option geocodeWorkersOption = parser.addIntegerOption('g', "geocodeworkers");
+		CmdLineParser.Option virtualThreadsOption = parser.addBooleanOption("virtualthreads");
+		CmdLineParser.Option browserSessionsOption = parser.addIntegerOption('b', "browsersessions");
+		CmdLineParser.Option browserSessionUsesOption = parser.addIntegerOption('u', "browsersessionuses");
+		CmdLineParser.Option geocodeCacheCapacityOption = parser.addIntegerOption('c', "geocodecache");
+		CmdLineParser.Option zipGeoFilesOption = parser.addStringOption('z', "zipgeo");
+		CmdLineParser.Option zipGeoIndexFileOption = parser.addStringOption("savezipgeo");
+		CmdLineParser.Option zipCodeLengthOption = parser.addIntegerOption("ziplength");
+		CmdLineParser.Option flushRecordsOption = parser.addIntegerOption("flushrecords");
+		CmdLineParser.Option flushIntervalOption = parser.addIntegerOption("flushinterval");
+		CmdLineParser.Option syncPolicyOption = parser.addStringOption("fsync");
+		CmdLineParser.Option maxAttemptsOption = parser.addIntegerOption("maxattempts");
+		CmdLineParser.Option geocodeRateOption = parser.addDoubleOption('r', "geocoderate");
+		CmdLineParser.Option geocodeDailyBudgetOption = parser.addIntegerOption("dailybudget");
+		CmdLineParser.Option geocoderUrlOption = parser.addStringOption('e', "geocoder");
+		CmdLineParser.Option geocoderConnectTimeoutOption = parser.addIntegerOption("connecttimeout");
+		CmdLineParser.Option geocoderReadTimeoutOption = parser.addIntegerOption("readtimeout");
+		CmdLineParser.Option geocoderMaxInFlightOption = parser.addIntegerOption("inflight");
+		CmdLineParser.Option coordinatesIndexFileOption = parser.addStringOption("exportindex");
+		CmdLineParser.Option serverPortOption = parser.addIntegerOption("serve");
+		CmdLineParser.Option metricsIntervalOption = parser.addIntegerOption("metricsinterval");
+		CmdLineParser.Option pageTimeoutOption = parser.addIntegerOption("pagetimeout");
+		CmdLineParser.Option postalBackendOption = parser.addStringOption("postal");
+		CmdLineParser.Option postalUrlOption = parser.addStringOption("postalurl");
+		CmdLineParser.Option postalConnectTimeoutOption = parser.addIntegerOption("postalconnecttimeout");
+		CmdLineParser.Option postalReadTimeoutOption = parser.addIntegerOption("postalreadtimeout");
+		CmdLineParser.Option shardOption = parser.addStringOption("shard");
+		CmdLineParser.Option mergeOption = parser.addBooleanOption("merge");
+		
+		try {
+			parser.parse(args);
+		} catch (CmdLineParser.OptionException e) {
+			LOGGER.severe("Exception while parsing command line arguments: " + e);
+			System.exit(1);
+		}
+		
+		zipCodeLength = (Integer)parser.getOptionValue(zipCodeLengthOption, ZipCodeScanner.DEFAULT_LENGTH);
+		serverPort = (Integer)parser.getOptionValue(serverPortOption);
+		merge = (Boolean)parser.getOptionValue(mergeOption, Boolean.FALSE);
+		maxAttempts = Math.max(1, (Integer)parser.getOptionValue(maxAttemptsOption, 3));
+		if (serverPort != null || merge) {
+			return;
+		}
+		
+		// Input file and sleep are mandatory, unless serving. Each option value can only be read once.
+		final String inputFileName = (String)parser.getOptionValue(inputFileOption);
+		final String iterationSleepSeconds = (String)parser.getOptionValue(iterationSleepOption);
+		if (inputFileName == null || iterationSleepSeconds == null) {
+			LOGGER.severe("Lacking or incomplete command line arguments\n\nUsage:\n" +
+					" java -jar zipcode-translator-v2.jar --serve <port> [--ziplength <digits>]\n" +
+					" java -jar zipcode-translator-v2.jar --merge [--maxattempts <attempts_before_parking_a_zip_code>]\n" +
+					" java -jar zipcode-translator-v2.jar -i <input_file> -s <seconds_to_sleep>" +
+					" [-p <postal_workers>] [-g <geocode_workers>] [--virtualthreads]" +
+					" [-b <browser_sessions>] [-u <lookups_per_browser_session>]" +
+					" [-c <cached_geocoding_results_in_memory>]" +
+					" [-z <zip_geo_file>[,<zip_geo_file>...] [--savezipgeo <index_file>]]" +
+					" [--ziplength <digits>]" +
+					" [--flushrecords <records>] [--flushinterval <seconds>] [--fsync never|checkpoint|flush]" +
+					" [--maxattempts <attempts_before_parking_a_zip_code>]" +
+					" [-r <geocoding_queries_per_second>] [--dailybudget <geocoding_queries_per_day>]" +
+					" [-e <geocoder_url>] [--connecttimeout <seconds>] [--readtimeout <seconds>]" +
+					" [--inflight <geocoding_requests>] [--exportindex <index_file>]" +
+					" [--metricsinterval <seconds>] [--pagetimeout <seconds>]" +
+					" [--postal browser|http --postalurl <search_url_with_{zip}>" +
+					" [--postalconnecttimeout <seconds>] [--postalreadtimeout <seconds>]] [--shard <i>/<n>]\n");
+			System.exit(1);
+		}
+		
+		inputFile = new File(inputFileName);
+		iterationSleep = 1000 * Long.parseLong(iterationSleepSeconds);
+		flushRecords = Math.max(1, (Integer)parser.getOptionValue(flushRecordsOption, 100));
+		flushInterval = 1000L * (Integer)parser.getOptionValue(flushIntervalOption, 5);
+		geocodeRate = (Double)parser.getOptionValue(geocodeRateOption, 5.0);
+		geocodeDailyBudget = (Integer)parser.getOptionValue(geocodeDailyBudgetOption, 2500);
+		geocoderUrl = (String)parser.getOptionValue(geocoderUrlOption, GEOCODER_REQUEST_PREFIX);
+		if (geocodeRate <= 0) {
+			LOGGER.severe("Geocoding rate has to be positive: " + geocodeRate);
+			System.exit(1);
+		}
+		final String syncPolicyName = (String)parser.getOptionValue(syncPolicyOption, "checkpoint");
+		try {
+			syncPolicy = ResultWriter.SyncPolicy.valueOf(syncPolicyName.toUpperCase(Locale.ENGLISH));
+		} catch (IllegalArgumentException e) {
+			LOGGER.severe("Unknown fsync policy: " + syncPolicyName);
+			System.exit(1);
+		}
+		postalWorkers = Math.max(1, (Integer)parser.getOptionValue(postalWorkersOption, 1));
+		geocodeWorkers = Math.max(1, (Integer)parser.getOptionValue(geocodeWorkersOption, 1));
+		virtualThreads = (Boolean)parser.getOptionValue(virtualThreadsOption, Boolean.FALSE);
+		geocoderConnectTimeout = 1000 * Math.max(1, (Integer)parser.getOptionValue(geocoderConnectTimeoutOption, 10));
+		geocoderReadTimeout = 1000 * Math.max(1, (Integer)parser.getOptionValue(geocoderReadTimeoutOption, 30));
+		geocoderMaxInFlight = Math.max(1, (Integer)parser.getOptionValue(geocoderMaxInFlightOption, geocodeWorkers));
+		browserSessions = Math.max(1, (Integer)parser.getOptionValue(browserSessionsOption, postalWorkers));
+		browserSessionUses = Math.max(1, (Integer)parser.getOptionValue(browserSessionUsesOption, 100));
+		geocodeCacheCapacity = Math.max(1, (Integer)parser.getOptionValue(geocodeCacheCapacityOption, 10000));
+		metricsInterval = Math.max(0, (Integer)parser.getOptionValue(metricsIntervalOption, 60));
+		pageReadiness = new PageReadiness(1000L * Math.max(1, (Integer)parser.getOptionValue(pageTimeoutOption, 10)));
+		final String shardSpec = (String)parser.getOptionValue(shardOption);
+		if (shardSpec != null) {
+			try {
+				shard = Shard.parse(shardSpec);
+			} catch (IllegalArgumentException e) {
+				LOGGER.severe(e.getMessage());
+				System.exit(1);
+			}
+			ResultWriter.useShard(shard);
+		}
+		final String postalBackend = (String)parser.getOptionValue(postalBackendOption, "browser");
+		if (postalBackend.equalsIgnoreCase("http")) {
+			postalUrl = (String)parser.getOptionValue(postalUrlOption);
+			if (postalUrl == null || !postalUrl.contains(HttpPostalLookup.ZIP_CODE)) {
+				LOGGER.severe("The http postal lookup needs --postalurl, a search URL containing " + HttpPostalLookup.ZIP_CODE);
+				System.exit(1);
+			}
+			postalConnectTimeout = 1000 * Math.max(1, (Integer)parser.getOptionValue(postalConnectTimeoutOption, 10));
+			postalReadTimeout = 1000 * Math.max(1, (Integer)parser.getOptionValue(postalReadTimeoutOption, 30));
+		} else if (!postalBackend.equalsIgnoreCase("browser")) {
+			LOGGER.severe("Unknown postal lookup: " + postalBackend);
+			System.exit(1);
+		}
+		
+		zipGeoFiles = new ArrayList<File>();
+		final String zipGeoFileNames = (String)parser.getOptionValue(zipGeoFilesOption);
+		if (zipGeoFileNames != null) {
+			for (String name : zipGeoFileNames.split(",")) {
+				zipGeoFiles.add(new File(name));
+			}
+		}
+		final String zipGeoIndexFileName = (String)parser.getOptionValue(zipGeoIndexFileOption);
+		if (zipGeoIndexFileName != null) {
+			zipGeoIndexFile = new File(zipGeoIndexFileName);
+		}
+		final String coordinatesIndexFileName = (String)parser.getOptionValue(coordinatesIndexFileOption);
+		if (coordinatesIndexFileName != null) {
+			coordinatesIndexFile = new File(coordinatesIndexFileName);
+		}
+	}
 }
\ No newline at end of file
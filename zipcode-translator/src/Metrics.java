@@ -0,0 +1,306 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Timings and counters of the stages of a run, so it can be seen whether the browser, the
+ * network or the disk is the bottleneck. Timings go into LatencyHistograms, which cost a few
+ * atomic increments per record. Everything is logged periodically and exposed through JMX as
+ * <code>zipcode-translator:type=Metrics</code>, with attributes like <code>geocode.http.p99</code>.
+ */
+public class Metrics {
+
+	private static final Logger LOGGER = Logger.getLogger(Metrics.class.getName());
+
+	/**
+	 * Starting a browser, in getOperaDriver().
+	 */
+	public static final String BROWSER_START = "browser.start";
+
+	/**
+	 * Loading Coduri Postale and submitting a ZIP code to it.
+	 */
+	public static final String NAVIGATION = "postal.navigation";
+
+	/**
+	 * Waiting for the Coduri Postale search results to be displayed.
+	 */
+	public static final String RESULTS_WAIT = "postal.wait";
+
+	/**
+	 * A geocoder request, from connecting to having read the response.
+	 */
+	public static final String GEOCODE_HTTP = "geocode.http";
+
+	/**
+	 * Parsing a geocoder response, while it's read.
+	 */
+	public static final String GEOCODE_PARSE = "geocode.parse";
+
+	/**
+	 * Flushing the result files to the disk.
+	 */
+	public static final String RESULTS_FLUSH = "results.flush";
+
+	public static final String POSTAL_LOOKUPS = "postal.lookups";
+
+	public static final String POSTAL_ERRORS = "postal.errors";
+
+	public static final String GEOCODE_TIMEOUTS = "geocode.timeouts";
+
+	public static final String GEOCODE_ERRORS = "geocode.errors";
+
+	public static final String GEOCODE_RETRIES = "geocode.retries";
+
+	public static final String RESULTS_WRITTEN = "results.written";
+
+	private static final ConcurrentMap<String, LatencyHistogram> HISTOGRAMS =
+			new ConcurrentHashMap<String, LatencyHistogram>();
+
+	private static final ConcurrentMap<String, AtomicLong> COUNTERS = new ConcurrentHashMap<String, AtomicLong>();
+
+	private static final String[] STATISTICS = {"count", "average", "p50", "p90", "p99", "max"};
+
+	private static ScheduledExecutorService reporter;
+
+	static {
+		for (String name : new String[]{BROWSER_START, NAVIGATION, RESULTS_WAIT, GEOCODE_HTTP, GEOCODE_PARSE,
+				RESULTS_FLUSH}) {
+			histogram(name);
+		}
+		for (String name : new String[]{POSTAL_LOOKUPS, POSTAL_ERRORS, GEOCODE_TIMEOUTS, GEOCODE_ERRORS,
+				GEOCODE_RETRIES, RESULTS_WRITTEN}) {
+			counter(name);
+		}
+	}
+
+
+	private Metrics() {
+	}
+
+	/**
+	 * Get a histogram, creating it if needed.
+	 *
+	 * @param name histogram name
+	 * @return LatencyHistogram object
+	 */
+	public static LatencyHistogram histogram(String name) {
+		LatencyHistogram histogram = HISTOGRAMS.get(name);
+		if (histogram == null) {
+			HISTOGRAMS.putIfAbsent(name, new LatencyHistogram());
+			histogram = HISTOGRAMS.get(name);
+		}
+		return histogram;
+	}
+
+	/**
+	 * Get a counter, creating it if needed.
+	 *
+	 * @param name counter name
+	 * @return counter
+	 */
+	public static AtomicLong counter(String name) {
+		AtomicLong counter = COUNTERS.get(name);
+		if (counter == null) {
+			COUNTERS.putIfAbsent(name, new AtomicLong());
+			counter = COUNTERS.get(name);
+		}
+		return counter;
+	}
+
+	/**
+	 * Record the time elapsed since a start.
+	 *
+	 * @param name histogram name
+	 * @param start System.nanoTime() at the start
+	 */
+	public static void record(String name, long start) {
+		histogram(name).record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Add one to a counter.
+	 *
+	 * @param name counter name
+	 */
+	public static void increment(String name) {
+		counter(name).incrementAndGet();
+	}
+
+	/**
+	 * Expose the metrics through JMX and start logging them periodically.
+	 *
+	 * @param interval seconds between two reports, 0 for no periodic report
+	 */
+	public static synchronized void start(long interval) {
+		try {
+			ObjectName name = new ObjectName("zipcode-translator:type=Metrics");
+			if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), name);
+			}
+		} catch (JMException e) {
+			LOGGER.warning("Could not expose the metrics through JMX: " + e);
+		}
+
+		if (interval > 0 && reporter == null) {
+			reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "metrics-reporter");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			reporter.scheduleAtFixedRate(new Runnable() {
+				private final Map<String, Long> last = new ConcurrentHashMap<String, Long>();
+				private long lastTime = System.nanoTime();
+
+				@Override
+				public void run() {
+					final long now = System.nanoTime();
+					LOGGER.info(report(last, (now - lastTime) / 1e9));
+					lastTime = now;
+				}
+			}, interval, interval, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Stop logging the metrics periodically and log them a last time.
+	 */
+	public static synchronized void stop() {
+		if (reporter != null) {
+			reporter.shutdownNow();
+			reporter = null;
+		}
+		LOGGER.info(report(null, 0));
+	}
+
+	/**
+	 * Describe the metrics.
+	 *
+	 * @param last counter values at the previous report, updated with the current ones, or null for no rates
+	 * @param seconds since the previous report
+	 * @return report
+	 */
+	private static String report(Map<String, Long> last, double seconds) {
+		StringBuilder report = new StringBuilder("Metrics:\n");
+		for (String name : sorted(HISTOGRAMS)) {
+			report.append(String.format(" - %-18s %s\n", name, HISTOGRAMS.get(name)));
+		}
+		for (String name : sorted(COUNTERS)) {
+			final long value = COUNTERS.get(name).get();
+			report.append(String.format(" - %-18s %d", name, value));
+			if (last != null) {
+				final Long previous = last.put(name, value);
+				report.append(String.format(", %.2f / s", (value - (previous == null ? 0 : previous)) / seconds));
+			}
+			report.append('\n');
+		}
+		return report.toString();
+	}
+
+	private static List<String> sorted(Map<String, ?> map) {
+		List<String> names = new ArrayList<String>(map.keySet());
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * JMX view of the metrics: a read-only attribute per counter and per histogram statistic.
+	 */
+	private static class MBean implements DynamicMBean {
+
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			AtomicLong counter = COUNTERS.get(attribute);
+			if (counter != null) {
+				return counter.get();
+			}
+
+			final int dot = attribute.lastIndexOf('.');
+			LatencyHistogram histogram = dot < 0 ? null : HISTOGRAMS.get(attribute.substring(0, dot));
+			if (histogram != null) {
+				final String statistic = attribute.substring(dot + 1);
+				if (statistic.equals("count")) {
+					return histogram.getCount();
+				} else if (statistic.equals("average")) {
+					return histogram.getAverage();
+				} else if (statistic.equals("max")) {
+					return histogram.getMax();
+				} else if (statistic.matches("p\\d+")) {
+					return histogram.getPercentile(Double.parseDouble(statistic.substring(1)));
+				}
+			}
+			throw new AttributeNotFoundException(attribute);
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			AttributeList list = new AttributeList();
+			for (String attribute : attributes) {
+				try {
+					list.add(new Attribute(attribute, getAttribute(attribute)));
+				} catch (AttributeNotFoundException e) {
+					// Left out
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+			for (String name : sorted(COUNTERS)) {
+				attributes.add(new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false));
+			}
+			for (String name : sorted(HISTOGRAMS)) {
+				for (String statistic : STATISTICS) {
+					attributes.add(new MBeanAttributeInfo(name + "." + statistic,
+							(statistic.equals("count") ? Long.class : Double.class).getName(),
+							name + " " + statistic + (statistic.equals("count") ? "" : "(ms)"), true, false, false));
+				}
+			}
+			return new MBeanInfo(Metrics.class.getName(), "Timings and counters of the run",
+					attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+					new MBeanOperationInfo[0], null);
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+			throw new ReflectionException(new NoSuchMethodException(actionName),
+					"Metrics have no operations: " + actionName);
+		}
+	}
+}
@@ -0,0 +1,244 @@
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.opera.core.systems.OperaDriver;
+
+/**
+ * Pool of open OperaDriver sessions. Starting a browser costs far more than a lookup, so
+ * sessions are kept open and handed out to one lookup at a time. Between lookups a session
+ * is reset by navigating back to the home page; it's only quit and replaced after a number
+ * of uses or after it has failed.
+ */
+public class OperaDriverPool {
+
+	private static final Logger LOGGER = Logger.getLogger(OperaDriverPool.class.getName());
+
+	/**
+	 * How long(ms) a checkout waits for an idle session before checking if it may start a new one.
+	 */
+	private static final long POLL_TIMEOUT = 200;
+
+	/**
+	 * Page every session is left on when idle.
+	 */
+	private final String homeUrl;
+
+	/**
+	 * Maximum number of open sessions.
+	 */
+	private final int size;
+
+	/**
+	 * Number of lookups after which a session is quit and replaced.
+	 */
+	private final int maxUses;
+
+	private final BlockingQueue<Session> idle = new LinkedBlockingQueue<Session>();
+
+	/**
+	 * Number of open sessions, idle or checked out.
+	 */
+	private final AtomicInteger open = new AtomicInteger();
+
+	/**
+	 * Set by close(); sessions released afterwards are quit instead of going back to the idle queue.
+	 */
+	private volatile boolean closed = false;
+
+	private final AtomicLong checkouts = new AtomicLong();
+
+	private final AtomicLong checkoutWaitNanos = new AtomicLong();
+
+	private final AtomicLong maxCheckoutWaitNanos = new AtomicLong();
+
+	private final AtomicLong started = new AtomicLong();
+
+	private final AtomicLong recycledWornOut = new AtomicLong();
+
+	private final AtomicLong recycledFailed = new AtomicLong();
+
+
+	/**
+	 * @param homeUrl page every session is reset to
+	 * @param size maximum number of open sessions
+	 * @param maxUses number of lookups after which a session is replaced
+	 */
+	public OperaDriverPool(String homeUrl, int size, int maxUses) {
+		this.homeUrl = homeUrl;
+		this.size = size;
+		this.maxUses = maxUses;
+	}
+
+	/**
+	 * Get a session for exclusive use, starting a new one if none is idle and the pool isn't full.
+	 * It has to be given back with release().
+	 *
+	 * @return Session positioned on the home page
+	 * @throws InterruptedException if interrupted while waiting for a session
+	 */
+	public Session checkout() throws InterruptedException {
+		final long start = System.nanoTime();
+
+		Session session = idle.poll();
+		while (session == null) {
+			if (reserve()) {
+				try {
+					session = start();
+				} catch (RuntimeException e) {
+					open.decrementAndGet();
+					throw e;
+				}
+			} else {
+				session = idle.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		final long wait = System.nanoTime() - start;
+		checkouts.incrementAndGet();
+		checkoutWaitNanos.addAndGet(wait);
+		long max;
+		while (wait > (max = maxCheckoutWaitNanos.get()) && !maxCheckoutWaitNanos.compareAndSet(max, wait)) {
+			// Retry
+		}
+
+		session.uses++;
+		return session;
+	}
+
+	/**
+	 * Give a session back to the pool. It's reset to the home page, or quit if it has failed,
+	 * has been used too many times or the pool has been closed.
+	 *
+	 * @param session checked out Session
+	 */
+	public void release(Session session) {
+		if (closed) {
+			quit(session);
+		} else if (session.failed) {
+			recycledFailed.incrementAndGet();
+			quit(session);
+		} else if (session.uses >= maxUses) {
+			recycledWornOut.incrementAndGet();
+			quit(session);
+		} else {
+			try {
+				final long start = System.nanoTime();
+				session.driver.navigate().to(homeUrl);
+				Metrics.record(Metrics.NAVIGATION, start);
+				idle.add(session);
+				if (closed) {
+					// Closed while the session was being reset
+					close();
+				}
+			} catch (RuntimeException e) {
+				LOGGER.warning("Could not reset browser session: " + e);
+				recycledFailed.incrementAndGet();
+				quit(session);
+			}
+		}
+	}
+
+	/**
+	 * Quit all idle sessions. Sessions still checked out are quit when released.
+	 */
+	public void close() {
+		closed = true;
+		Session session;
+		while ((session = idle.poll()) != null) {
+			quit(session);
+		}
+	}
+
+	/**
+	 * Print to the logger how long lookups waited for a session and how often sessions were reused,
+	 * so the pool can be sized.
+	 */
+	public void showStatistics() {
+		final long count = checkouts.get();
+		final long starts = started.get();
+		LOGGER.info("Browser pool:\n" +
+			String.format(" - %d checkouts, average wait %d ms, maximum wait %d ms\n", count,
+					count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(checkoutWaitNanos.get() / count),
+					TimeUnit.NANOSECONDS.toMillis(maxCheckoutWaitNanos.get())) +
+			String.format(" - %d sessions started, %.1f uses per session\n", starts,
+					starts == 0 ? 0.0 : (double) count / starts) +
+			String.format(" - %d sessions recycled after %d uses, %d after a failure\n",
+					recycledWornOut.get(), maxUses, recycledFailed.get()));
+	}
+
+	/**
+	 * Reserve a place for a new session, if the pool isn't full.
+	 *
+	 * @return true if a new session may be started
+	 */
+	private boolean reserve() {
+		int current;
+		do {
+			current = open.get();
+			if (current >= size) {
+				return false;
+			}
+		} while (!open.compareAndSet(current, current + 1));
+		return true;
+	}
+
+	private Session start() {
+		OperaDriver driver = Main.getOperaDriver();
+		try {
+			final long start = System.nanoTime();
+			driver.navigate().to(homeUrl);
+			Metrics.record(Metrics.NAVIGATION, start);
+		} catch (RuntimeException e) {
+			driver.quit();
+			throw e;
+		}
+		started.incrementAndGet();
+		return new Session(driver);
+	}
+
+	private void quit(Session session) {
+		open.decrementAndGet();
+		try {
+			session.driver.quit();
+		} catch (RuntimeException e) {
+			LOGGER.warning("Could not quit browser session: " + e);
+		}
+	}
+
+	/**
+	 * Browser session checked out from the pool.
+	 */
+	public static class Session {
+
+		private final OperaDriver driver;
+
+		private int uses;
+
+		private boolean failed;
+
+
+		private Session(OperaDriver driver) {
+			this.driver = driver;
+		}
+
+		/**
+		 * Get the browser of this session.
+		 *
+		 * @return OperaDriver instance
+		 */
+		public OperaDriver getDriver() {
+			return driver;
+		}
+
+		/**
+		 * Mark this session as failed, so that it's replaced once released.
+		 */
+		public void markFailed() {
+			failed = true;
+		}
+	}
+}
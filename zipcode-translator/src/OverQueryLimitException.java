@@ -0,0 +1,17 @@
+import java.io.IOException;
+
+/**
+ * Thrown when the geocoder refuses a query because the maximum number of queries has been reached.
+ */
+public class OverQueryLimitException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+
+	/**
+	 * @param message which limit has been reached
+	 */
+	public OverQueryLimitException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,187 @@
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.ui.ExpectedCondition;
+
+/**
+ * Waits for a page to be ready by polling its DOM, instead of sleeping a fixed time or relying
+ * on the implicit wait of the driver.
+ * <p>
+ * Polling starts after a fraction of how long waits have usually taken, then the interval
+ * grows from a few milliseconds up to MAX_INTERVAL, so fast pages are seen as soon as they're
+ * ready while slow ones aren't polled needlessly often. A wait gives up after the deadline.
+ */
+public class PageReadiness {
+
+	/**
+	 * First polling interval(ms).
+	 */
+	private static final long FIRST_INTERVAL = 10;
+
+	/**
+	 * Longest polling interval(ms).
+	 */
+	private static final long MAX_INTERVAL = 100;
+
+	/**
+	 * Weight of the last wait in the average wait.
+	 */
+	private static final double AVERAGE_WEIGHT = 0.2;
+
+	/**
+	 * Ready when no jQuery AJAX request is pending and the document has loaded.
+	 */
+	private static final String AJAX_COMPLETE = "return document.readyState == 'complete'" +
+			" && (!window.jQuery || window.jQuery.active == 0);";
+
+	/**
+	 * Longest wait(ms).
+	 */
+	private final long deadline;
+
+	/**
+	 * Moving average(ms) of the successful waits for results.
+	 */
+	private volatile double averageWait;
+
+
+	/**
+	 * @param deadline longest wait(ms)
+	 */
+	public PageReadiness(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Wait for an element to be present.
+	 *
+	 * @param driver WebDriver object
+	 * @param by locator of the element
+	 * @return the element
+	 * @throws TimeoutException if the element isn't present before the deadline
+	 */
+	public WebElement find(WebDriver driver, final By by) {
+		return await(driver, new ExpectedCondition<WebElement>() {
+			@Override
+			public WebElement apply(WebDriver driver) {
+				List<WebElement> elements = driver.findElements(by);
+				return elements.isEmpty() ? null : elements.get(0);
+			}
+		}, 0);
+	}
+
+	/**
+	 * Get the text of the content of an element without waiting.
+	 *
+	 * @param driver WebDriver object
+	 * @param element locator of the element
+	 * @param content locator of the content within the element
+	 * @return text or null if the content isn't present
+	 */
+	public static String text(WebDriver driver, By element, By content) {
+		try {
+			List<WebElement> elements = driver.findElements(element);
+			if (elements.isEmpty()) {
+				return null;
+			}
+			List<WebElement> contents = elements.get(0).findElements(content);
+			return contents.isEmpty() ? null : contents.get(0).getText();
+		} catch (StaleElementReferenceException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Wait for search results to be displayed: the results element has content other than the
+	 * previous results, and no AJAX request is pending.
+	 *
+	 * @param driver WebDriver object
+	 * @param results locator of the results element
+	 * @param content locator, within the results element, of the content that shows they're displayed
+	 * @param previous text of the content before searching, null if there was none
+	 * @return the results element
+	 * @throws TimeoutException if the results aren't displayed before the deadline
+	 */
+	public WebElement awaitResults(WebDriver driver, final By results, final By content, final String previous) {
+		final long start = System.nanoTime();
+		WebElement element = await(driver, new ExpectedCondition<WebElement>() {
+			@Override
+			public WebElement apply(WebDriver driver) {
+				List<WebElement> elements = driver.findElements(results);
+				if (elements.isEmpty()) {
+					return null;
+				}
+				List<WebElement> contents = elements.get(0).findElements(content);
+				if (contents.isEmpty() || (previous != null && previous.equals(contents.get(0).getText()))) {
+					return null;
+				}
+				return isAjaxComplete(driver) ? elements.get(0) : null;
+			}
+		}, (long) (averageWait / 2));
+
+		final double wait = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		averageWait = averageWait == 0 ? wait : averageWait + AVERAGE_WEIGHT * (wait - averageWait);
+		return element;
+	}
+
+	/**
+	 * Poll a condition until it returns a value.
+	 *
+	 * @param driver WebDriver object
+	 * @param condition returns null while not ready
+	 * @param delay time(ms) before polling for the first time
+	 * @return value of the condition
+	 * @throws TimeoutException if the condition didn't return a value before the deadline
+	 */
+	private <T> T await(WebDriver driver, ExpectedCondition<T> condition, long delay) {
+		final long end = System.currentTimeMillis() + deadline;
+		long interval = FIRST_INTERVAL;
+		try {
+			if (delay > 0) {
+				Thread.sleep(Math.min(delay, deadline));
+			}
+			while (true) {
+				try {
+					final T value = condition.apply(driver);
+					if (value != null) {
+						return value;
+					}
+				} catch (NoSuchElementException e) {
+					// Not there yet
+				} catch (StaleElementReferenceException e) {
+					// Replaced while looking at it
+				}
+
+				final long left = end - System.currentTimeMillis();
+				if (left <= 0) {
+					throw new TimeoutException("Page not ready after " + deadline + " ms");
+				}
+				Thread.sleep(Math.min(interval, left));
+				interval = Math.min(MAX_INTERVAL, interval * 3 / 2);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new WebDriverException("Interrupted while waiting for the page", e);
+		}
+	}
+
+	private static boolean isAjaxComplete(WebDriver driver) {
+		if (!(driver instanceof JavascriptExecutor)) {
+			return true;
+		}
+		try {
+			return Boolean.TRUE.equals(((JavascriptExecutor) driver).executeScript(AJAX_COMPLETE));
+		} catch (WebDriverException e) {
+			// Scripts can't be run, so rely on the DOM only
+			return true;
+		}
+	}
+}
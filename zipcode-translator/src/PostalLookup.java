@@ -0,0 +1,20 @@
+/**
+ * Finds the county, locality and streets of a ZIP code on Coduri Postale.
+ */
+public interface PostalLookup {
+
+	/**
+	 * Look a ZIP code up.
+	 *
+	 * @param zipCode ZIP code
+	 * @return GeoInfo object if successful information retrieved or null if ZIP code is invalid
+	 * @throws IllegalStateException if we could not gather information about this ZIP code
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	GeoInfo lookup(String zipCode) throws InterruptedException;
+
+	/**
+	 * Release the resources of the lookup and print its statistics to the logger.
+	 */
+	void close();
+}
@@ -0,0 +1,245 @@
+import jargs.gnu.CmdLineParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.jboss.netty.handler.codec.http.QueryStringDecoder;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+import com.google.common.io.Files;
+
+/**
+ * Local stand-in for the Coduri Postale search, replaying recorded search results, so the
+ * http postal lookup can be tested and load tested with no network. A query for
+ * <code>/search?postalCode=110001</code> is answered with the file <code>110001.html</code> of
+ * the recordings directory, or else with <code>default.html</code>, or else with a 404. Run the
+ * translator with <code>--postal http --postalurl http://localhost:&lt;port&gt;/search?postalCode={zip}</code>.
+ */
+public class PostalStandInServer {
+
+	private static final Logger LOGGER = Logger.getLogger(PostalStandInServer.class.getName());
+
+	private static final String DEFAULT = "default";
+
+	private final int port;
+
+	/**
+	 * Directory of the recorded responses.
+	 */
+	private final File recordings;
+
+	/**
+	 * Delay(ms) of each answer.
+	 */
+	private final long latency;
+
+	private final AtomicLong queries = new AtomicLong();
+
+	/**
+	 * Accepted connections still open, closed on stop() so kept-alive ones don't hold it up.
+	 */
+	private final ChannelGroup openConnections = new DefaultChannelGroup("postal-stand-in");
+
+	private ServerBootstrap bootstrap;
+
+	private Timer timer;
+
+	private Channel channel;
+
+
+	/**
+	 * @param port port to listen on
+	 * @param recordings directory of the recorded responses
+	 * @param latency delay(ms) of each answer
+	 */
+	public PostalStandInServer(int port, File recordings, long latency) {
+		this.port = port;
+		this.recordings = recordings;
+		this.latency = latency;
+	}
+
+	/**
+	 * Start listening.
+	 */
+	public void start() {
+		// Ticks of 1 ms, the default 100 ms would round the latency up
+		timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS);
+		bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(
+				Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+		bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+			@Override
+			public ChannelPipeline getPipeline() {
+				ChannelPipeline pipeline = Channels.pipeline();
+				pipeline.addLast("decoder", new HttpRequestDecoder());
+				pipeline.addLast("aggregator", new HttpChunkAggregator(64 * 1024));
+				pipeline.addLast("encoder", new HttpResponseEncoder());
+				pipeline.addLast("handler", new Handler());
+				return pipeline;
+			}
+		});
+		bootstrap.setOption("child.tcpNoDelay", true);
+		bootstrap.setOption("child.keepAlive", true);
+		channel = bootstrap.bind(new InetSocketAddress(port));
+		LOGGER.info(String.format("Postal stand-in listening on port %d(recordings %s, latency %d ms).", port,
+				recordings.getAbsolutePath(), latency));
+	}
+
+	/**
+	 * Stop listening and release the threads.
+	 */
+	public void stop() {
+		channel.close().awaitUninterruptibly();
+		openConnections.close().awaitUninterruptibly();
+		timer.stop();
+		bootstrap.releaseExternalResources();
+		LOGGER.info("Postal stand-in got " + queries.get() + " queries.");
+	}
+
+	/**
+	 * Get the number of queries answered so far.
+	 *
+	 * @return queries
+	 */
+	public long getQueries() {
+		return queries.get();
+	}
+
+	private class Handler extends SimpleChannelUpstreamHandler {
+
+		@Override
+		public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) {
+			openConnections.add(e.getChannel());
+		}
+
+		@Override
+		public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws IOException {
+			final HttpRequest request = (HttpRequest) e.getMessage();
+			final Channel channel = e.getChannel();
+			final HttpResponse response = answer(request);
+
+			if (latency > 0) {
+				timer.newTimeout(new TimerTask() {
+					@Override
+					public void run(Timeout timeout) {
+						send(channel, request, response);
+					}
+				}, latency, TimeUnit.MILLISECONDS);
+			} else {
+				send(channel, request, response);
+			}
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+			e.getChannel().close();
+		}
+	}
+
+	private HttpResponse answer(HttpRequest request) throws IOException {
+		queries.incrementAndGet();
+
+		List<String> zipCodes = new QueryStringDecoder(request.getUri()).getParameters().get("postalCode");
+		File recording = null;
+		if (zipCodes != null && !zipCodes.isEmpty() && zipCodes.get(0).matches("\\d+")) {
+			recording = new File(recordings, zipCodes.get(0) + ".html");
+		}
+		if (recording == null || !recording.isFile()) {
+			recording = new File(recordings, DEFAULT + ".html");
+		}
+
+		HttpResponse response;
+		if (recording.isFile()) {
+			response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+			response.setHeader(HttpHeaders.Names.CONTENT_TYPE, "text/html; charset=UTF-8");
+			response.setContent(ChannelBuffers.wrappedBuffer(Files.toByteArray(recording)));
+		} else {
+			response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND);
+			response.setContent(ChannelBuffers.EMPTY_BUFFER);
+		}
+		HttpHeaders.setContentLength(response, response.getContent().readableBytes());
+		return response;
+	}
+
+	private static void send(Channel channel, HttpRequest request, HttpResponse response) {
+		final boolean keepAlive = HttpHeaders.isKeepAlive(request);
+		if (keepAlive) {
+			response.setHeader(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+		}
+		ChannelFuture future = channel.write(response);
+		if (!keepAlive) {
+			future.addListener(ChannelFutureListener.CLOSE);
+		}
+	}
+
+	/**
+	 * Run the stand-in until the process is killed.
+	 *
+	 * @param args command line arguments
+	 */
+	public static void main(String[] args) {
+		CmdLineParser parser = new CmdLineParser();
+		CmdLineParser.Option portOption = parser.addIntegerOption('p', "port");
+		CmdLineParser.Option recordingsOption = parser.addStringOption('d', "recordings");
+		CmdLineParser.Option latencyOption = parser.addIntegerOption('l', "latency");
+
+		try {
+			parser.parse(args);
+		} catch (CmdLineParser.OptionException e) {
+			LOGGER.severe("Exception while parsing command line arguments: " + e);
+			System.exit(1);
+		}
+		final String recordings = (String) parser.getOptionValue(recordingsOption);
+		if (recordings == null) {
+			LOGGER.severe("Lacking or incomplete command line arguments\n\nUsage:\n" +
+					" java -cp zipcode-translator-v2.jar PostalStandInServer -d <recordings_directory>" +
+					" [-p <port>] [-l <latency_ms>]\n");
+			System.exit(1);
+		}
+
+		final PostalStandInServer server = new PostalStandInServer(
+				(Integer) parser.getOptionValue(portOption, 8090),
+				new File(recordings),
+				(Integer) parser.getOptionValue(latencyOption, 0));
+		server.start();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				server.stop();
+			}
+		});
+	}
+}
@@ -0,0 +1,633 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Durable record of the terminal state of every ZIP code processed so far: whether it got a
+ * result, turned out to be invalid or failed, and after how many attempts.
+ * <p>
+ * Each state change is appended to a journal as a fixed size record, followed by the CRC32 of
+ * the record:
+ * <code>
+ * int zip code, byte state, int attempts, int crc
+ * </code>
+ * Once the journal holds COMPACTION_RECORDS records, the whole table is written to a snapshot
+ * and the journal is truncated. Opening loads the snapshot, which is one sequential read, and
+ * replays the journal up to its first damaged record, so startup time only grows with the
+ * journal tail.
+ * <p>
+ * A ZIP code that failed maxAttempts times is parked: it's skipped like a processed one
+ * instead of being retried on every run.
+ * <p>
+ * Records are only written on flush(), which the ResultWriter calls after flushing the result
+ * files, so the journal never claims more than the result files hold.
+ */
+public class ProgressJournal {
+
+	private static final Logger LOGGER = Logger.getLogger(ProgressJournal.class.getName());
+
+	/**
+	 * Number of journal records that triggers a compaction into the snapshot.
+	 */
+	private static final int COMPACTION_RECORDS = 100000;
+
+	/**
+	 * Size(bytes) of a journal record, CRC included.
+	 */
+	private static final int RECORD_SIZE = 4 + 1 + 4 + 4;
+
+	/**
+	 * First int of a snapshot file.
+	 */
+	private static final int SNAPSHOT_MAGIC = 0x5A495053;
+
+	private static final LookupResult.Kind[] KINDS = LookupResult.Kind.values();
+
+	private final File journal;
+
+	private final File snapshot;
+
+	/**
+	 * Number of failed attempts after which a ZIP code is parked.
+	 */
+	private final int maxAttempts;
+
+	/**
+	 * State and attempts of each ZIP code, packed by pack().
+	 */
+	private final StateTable states = new StateTable();
+
+	/**
+	 * ZIP codes handed out for processing in this run, so one repeated in the input is
+	 * processed once. Not persisted.
+	 */
+	private final StateTable claimed = new StateTable();
+
+	/**
+	 * Guards the table and the journal, which is written while holding it, hence not a
+	 * synchronized block that would pin the carrier of a virtual thread.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * Records waiting for the next flush.
+	 */
+	private ByteBuffer pending = ByteBuffer.allocate(RECORD_SIZE * 1024);
+
+	private FileOutputStream out;
+
+	private FileChannel channel;
+
+	/**
+	 * Number of records in the journal, flushed or not.
+	 */
+	private int journalRecords = 0;
+
+	/**
+	 * True if records were written since the last sync.
+	 */
+	private boolean dirty = false;
+
+
+	/**
+	 * Open the journal of a shard.
+	 *
+	 * @param shard Shard object
+	 * @param maxAttempts number of failed attempts after which a ZIP code is parked
+	 * @return ProgressJournal object
+	 * @throws IOException if the journal couldn't be read or created
+	 */
+	public static ProgressJournal open(Shard shard, int maxAttempts) throws IOException {
+		return new ProgressJournal(file(".journal", shard), file(".snapshot", shard), maxAttempts);
+	}
+
+	/**
+	 * Delete the journal and snapshot of a shard, so they're built again from the result files
+	 * the next time they're opened, e.g. after the result files were merged.
+	 *
+	 * @param shard Shard object
+	 * @throws IOException if the files couldn't be deleted
+	 */
+	public static void reset(Shard shard) throws IOException {
+		for (File file : new File[]{file(".journal", shard), file(".snapshot", shard)}) {
+			if (file.exists() && !file.delete()) {
+				throw new IOException("Could not delete " + file.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Rebuild the canonical journal once the result files of the shards were merged into the
+	 * canonical ones. The merged files hold a single line per ZIP code, so the failed attempts
+	 * are taken from the journals of the shards and the previous canonical journal: a ZIP code
+	 * that failed keeps the highest attempts found in any of them.
+	 *
+	 * @param maxAttempts number of failed attempts after which a ZIP code is parked
+	 * @throws IOException if the journals couldn't be read or written
+	 */
+	public static void rebuild(int maxAttempts) throws IOException {
+		final Pattern pattern = Pattern.compile("progress(-shard\\d+of\\d+)?\\.(journal|snapshot)");
+		Set<String> names = new TreeSet<String>();
+		for (String name : ResultWriter.directory.list()) {
+			if (pattern.matcher(name).matches()) {
+				names.add(name.substring(0, name.lastIndexOf('.')));
+			}
+		}
+
+		StateTable failures = new StateTable();
+		for (String name : names) {
+			ProgressJournal shardJournal = new ProgressJournal(new File(ResultWriter.directory, name + ".journal"),
+					new File(ResultWriter.directory, name + ".snapshot"), maxAttempts);
+			shardJournal.close();
+			final StateTable states = shardJournal.states;
+			for (int i = 0; i < states.keys.length; i++) {
+				if (states.keys[i] != StateTable.EMPTY && kind(states.values[i]) == LookupResult.Kind.ERROR) {
+					final int previous = failures.get(states.keys[i]);
+					if (previous == StateTable.MISSING || attempts(states.values[i]) > attempts(previous)) {
+						failures.put(states.keys[i], states.values[i]);
+					}
+				}
+			}
+		}
+
+		reset(Shard.ALL);
+		ProgressJournal canonical = open(Shard.ALL, maxAttempts);
+		canonical.lock.lock();
+		try {
+			for (int i = 0; i < failures.keys.length; i++) {
+				if (failures.keys[i] != StateTable.EMPTY) {
+					// Imported from errors.txt, i.e. still failing after the merge
+					final int current = canonical.states.get(failures.keys[i]);
+					if (current != StateTable.MISSING && kind(current) == LookupResult.Kind.ERROR
+							&& attempts(failures.values[i]) > attempts(current)) {
+						canonical.states.put(failures.keys[i], failures.values[i]);
+					}
+				}
+			}
+			canonical.out.close();
+			canonical.writeSnapshot();
+			LOGGER.info(String.format("Rebuilt the progress journal from %d journals: %d zip codes, %d of them parked.",
+					names.size(), canonical.states.size(), canonical.getParked()));
+		} finally {
+			canonical.lock.unlock();
+		}
+	}
+
+	private static File file(String extension, Shard shard) {
+		return new File(ResultWriter.directory, "progress" + shard.getSuffix() + extension);
+	}
+
+	/**
+	 * Load the snapshot and the journal. If neither exists yet, the table is built once from the
+	 * result files of the ResultWriter, so runs started before the journal existed are resumed.
+	 *
+	 * @param journal journal file
+	 * @param snapshot snapshot file
+	 * @param maxAttempts number of failed attempts after which a ZIP code is parked
+	 * @throws IOException if the files couldn't be read or written
+	 */
+	public ProgressJournal(File journal, File snapshot, int maxAttempts) throws IOException {
+		this.journal = journal;
+		this.snapshot = snapshot;
+		this.maxAttempts = maxAttempts;
+
+		final long start = System.currentTimeMillis();
+		if (!journal.exists() && !snapshot.exists()) {
+			importResults(ResultWriter.errors, LookupResult.Kind.ERROR);
+			importResults(ResultWriter.results, LookupResult.Kind.RESULT);
+			importResults(ResultWriter.invalids, LookupResult.Kind.INVALID);
+			writeSnapshot();
+		} else {
+			loadSnapshot();
+			loadJournal();
+		}
+		openJournal();
+		if (journalRecords >= COMPACTION_RECORDS) {
+			compact();
+		}
+
+		LOGGER.info(String.format("Progress journal loaded in %d ms: %d zip codes, %d of them parked after %d failed attempts.",
+				System.currentTimeMillis() - start, states.size(), getParked(), maxAttempts));
+	}
+
+	/**
+	 * Record the outcome of an attempt at a ZIP code.
+	 *
+	 * @param zipCode value
+	 * @param kind outcome
+	 */
+	public void record(String zipCode, LookupResult.Kind kind) {
+		lock.lock();
+		try {
+			final int zip = Integer.parseInt(zipCode);
+			final int attempts = update(zip, kind);
+
+			if (pending.remaining() < RECORD_SIZE) {
+				ByteBuffer larger = ByteBuffer.allocate(pending.capacity() * 2);
+				pending.flip();
+				larger.put(pending);
+				pending = larger;
+			}
+			appendRecord(pending, zip, kind, attempts);
+			journalRecords++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Check if a ZIP code doesn't have to be processed anymore, i.e. it got a result, is invalid
+	 * or has been parked.
+	 *
+	 * @param zipCode value
+	 * @return true if the ZIP code has to be skipped
+	 */
+	public boolean isDone(int zipCode) {
+		lock.lock();
+		try {
+			final int state = states.get(zipCode);
+			return state != StateTable.MISSING && isTerminal(state);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Claim a ZIP code for processing in this run.
+	 *
+	 * @param zipCode value
+	 * @return false if the ZIP code was already claimed in this run
+	 */
+	public boolean claim(int zipCode) {
+		lock.lock();
+		try {
+			if (claimed.get(zipCode) != StateTable.MISSING) {
+				return false;
+			}
+			claimed.put(zipCode, 0);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the number of ZIP codes that failed too many times to be retried.
+	 *
+	 * @return number of parked ZIP codes
+	 */
+	public int getParked() {
+		lock.lock();
+		try {
+			int parked = 0;
+			for (int i = 0; i < states.keys.length; i++) {
+				if (states.keys[i] != StateTable.EMPTY && kind(states.values[i]) == LookupResult.Kind.ERROR
+						&& isTerminal(states.values[i])) {
+					parked++;
+				}
+			}
+			return parked;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Write the pending records to the journal, compacting it into the snapshot if it has grown too long.
+	 *
+	 * @param sync true to force the records to the disk
+	 * @throws IOException if the journal couldn't be written
+	 */
+	public void flush(boolean sync) throws IOException {
+		lock.lock();
+		try {
+			if (pending.position() > 0) {
+				pending.flip();
+				while (pending.hasRemaining()) {
+					channel.write(pending);
+				}
+				pending.clear();
+				dirty = true;
+			}
+			if (sync && dirty) {
+				channel.force(false);
+				dirty = false;
+			}
+			if (journalRecords >= COMPACTION_RECORDS) {
+				compact();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Flush and close the journal.
+	 *
+	 * @throws IOException if the journal couldn't be written
+	 */
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			try {
+				flush(true);
+			} finally {
+				out.close();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Count one more attempt at a ZIP code in the table.
+	 *
+	 * @return number of attempts so far
+	 */
+	private int update(int zip, LookupResult.Kind kind) {
+		final int previous = states.get(zip);
+		final int attempts = (previous == StateTable.MISSING ? 0 : attempts(previous)) + 1;
+		states.put(zip, pack(kind, attempts));
+		return attempts;
+	}
+
+	private boolean isTerminal(int state) {
+		return kind(state) != LookupResult.Kind.ERROR || attempts(state) >= maxAttempts;
+	}
+
+	/**
+	 * Write the whole table to the snapshot and start an empty journal.
+	 */
+	private void compact() throws IOException {
+		final long start = System.currentTimeMillis();
+		out.close();
+		writeSnapshot();
+		openJournal();
+		LOGGER.info("Compacted progress journal into a snapshot of " + states.size() + " zip codes in " +
+				(System.currentTimeMillis() - start) + " ms.");
+	}
+
+	/**
+	 * Write the table to a temporary file, force it to the disk and only then replace the
+	 * snapshot with it and delete the journal it makes redundant. A crash at any point leaves
+	 * either the old snapshot and journal or the new snapshot.
+	 */
+	private void writeSnapshot() throws IOException {
+		File temporary = new File(snapshot.getPath() + ".tmp");
+		FileOutputStream file = new FileOutputStream(temporary);
+		try {
+			DataOutputStream data = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+			CRC32 checksum = new CRC32();
+			data.writeInt(SNAPSHOT_MAGIC);
+			data.writeInt(states.size());
+			byte[] entry = new byte[8];
+			for (int i = 0; i < states.keys.length; i++) {
+				if (states.keys[i] != StateTable.EMPTY) {
+					ByteBuffer.wrap(entry).putInt(states.keys[i]).putInt(states.values[i]);
+					checksum.update(entry, 0, entry.length);
+					data.write(entry);
+				}
+			}
+			data.writeLong(checksum.getValue());
+			data.flush();
+			file.getFD().sync();
+		} finally {
+			file.close();
+		}
+
+		java.nio.file.Files.move(temporary.toPath(), snapshot.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		if (journal.exists() && !journal.delete()) {
+			throw new IOException("Could not delete " + journal.getAbsolutePath());
+		}
+		journalRecords = 0;
+	}
+
+	private void loadSnapshot() throws IOException {
+		if (!snapshot.exists()) {
+			return;
+		}
+		DataInputStream data = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot), 64 * 1024));
+		try {
+			if (data.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("Not a progress snapshot: " + snapshot.getAbsolutePath());
+			}
+			final int count = data.readInt();
+			CRC32 checksum = new CRC32();
+			byte[] entry = new byte[8];
+			for (int i = 0; i < count; i++) {
+				data.readFully(entry);
+				checksum.update(entry, 0, entry.length);
+				ByteBuffer buffer = ByteBuffer.wrap(entry);
+				states.put(buffer.getInt(), buffer.getInt());
+			}
+			if (data.readLong() != checksum.getValue()) {
+				throw new IOException("Corrupted progress snapshot: " + snapshot.getAbsolutePath());
+			}
+		} catch (EOFException e) {
+			throw new IOException("Truncated progress snapshot: " + snapshot.getAbsolutePath(), e);
+		} finally {
+			data.close();
+		}
+	}
+
+	/**
+	 * Replay the journal over the snapshot, truncating it before the first torn or damaged record.
+	 * Records older than the state in the snapshot are ignored, which happens if a crash hit
+	 * between writing a snapshot and deleting the journal.
+	 */
+	private void loadJournal() throws IOException {
+		if (!journal.exists()) {
+			return;
+		}
+		byte[] bytes = Files.toByteArray(journal);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		int valid = 0;
+		while (buffer.remaining() >= RECORD_SIZE) {
+			crc.reset();
+			crc.update(bytes, buffer.position(), RECORD_SIZE - 4);
+			final int zip = buffer.getInt();
+			final int kind = buffer.get();
+			final int attempts = buffer.getInt();
+			if (buffer.getInt() != (int) crc.getValue() || kind < 0 || kind >= KINDS.length) {
+				break;
+			}
+			final int current = states.get(zip);
+			if (current == StateTable.MISSING || attempts >= attempts(current)) {
+				states.put(zip, pack(KINDS[kind], attempts));
+			}
+			valid += RECORD_SIZE;
+		}
+		journalRecords = valid / RECORD_SIZE;
+
+		if (valid != bytes.length) {
+			LOGGER.warning("Dropping " + (bytes.length - valid) + " damaged bytes at the end of " + journal.getAbsolutePath());
+			RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+			try {
+				raf.setLength(valid);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+
+	private void openJournal() throws IOException {
+		out = new FileOutputStream(journal, true);
+		channel = out.getChannel();
+		dirty = false;
+	}
+
+	/**
+	 * Add the ZIP codes of a result file to the table, as if each line were a journal record.
+	 */
+	private void importResults(File file, LookupResult.Kind kind) throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		int imported = 0;
+		BufferedReader reader = Files.newReader(file, Charsets.UTF_8);
+		try {
+			int i = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// Skip first 2 lines(header and empty line)
+				if (i++ > 1) {
+					final int pos = line.indexOf(';');
+					try {
+						update(Integer.parseInt(pos == -1 ? line.trim() : line.substring(0, pos).trim()), kind);
+						imported++;
+					} catch (NumberFormatException e) {
+						LOGGER.warning("Ignoring line of " + file.getName() + ": " + line);
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (imported > 0) {
+			LOGGER.info("Imported " + imported + " zip codes from " + file.getAbsolutePath());
+		}
+	}
+
+	private void appendRecord(ByteBuffer buffer, int zip, LookupResult.Kind kind, int attempts) {
+		final int start = buffer.position();
+		buffer.putInt(zip).put((byte) kind.ordinal()).putInt(attempts);
+		crc.reset();
+		crc.update(buffer.array(), start, RECORD_SIZE - 4);
+		buffer.putInt((int) crc.getValue());
+	}
+
+	private static int pack(LookupResult.Kind kind, int attempts) {
+		return attempts << 2 | kind.ordinal();
+	}
+
+	private static LookupResult.Kind kind(int state) {
+		return KINDS[state & 3];
+	}
+
+	private static int attempts(int state) {
+		return state >>> 2;
+	}
+
+	/**
+	 * Map from int ZIP code to int state with open addressing, about 10 bytes per ZIP code
+	 * instead of the 80 of a HashMap of Integers.
+	 */
+	private static class StateTable {
+
+		/**
+		 * Marks a free slot. ZIP codes are never negative.
+		 */
+		static final int EMPTY = -1;
+
+		/**
+		 * Returned by get() for a ZIP code that isn't in the table. States are never negative.
+		 */
+		static final int MISSING = -1;
+
+		private int[] keys = newKeys(1024);
+
+		private int[] values = new int[1024];
+
+		private int size = 0;
+
+
+		int size() {
+			return size;
+		}
+
+		int get(int key) {
+			int slot = slot(keys, key);
+			return keys[slot] == EMPTY ? MISSING : values[slot];
+		}
+
+		void put(int key, int value) {
+			int slot = slot(keys, key);
+			if (keys[slot] == EMPTY) {
+				if ((size + 1) * 4 > keys.length * 3) {
+					grow();
+					slot = slot(keys, key);
+				}
+				keys[slot] = key;
+				size++;
+			}
+			values[slot] = value;
+		}
+
+		private void grow() {
+			int[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = newKeys(oldKeys.length * 2);
+			values = new int[oldKeys.length * 2];
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != EMPTY) {
+					final int slot = slot(keys, oldKeys[i]);
+					keys[slot] = oldKeys[i];
+					values[slot] = oldValues[i];
+				}
+			}
+		}
+
+		/**
+		 * Find the slot of a key, or the free slot where it belongs.
+		 */
+		private static int slot(int[] keys, int key) {
+			final int mask = keys.length - 1;
+			final int hash = key * 0x9E3779B9;
+			int slot = (hash ^ hash >>> 16) & mask;
+			while (keys[slot] != EMPTY && keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private static int[] newKeys(int capacity) {
+			int[] keys = new int[capacity];
+			Arrays.fill(keys, EMPTY);
+			return keys;
+		}
+	}
+}
@@ -1,154 +1,442 @@
-import java.io.File;
-import java.io.IOException;
-import java.util.logging.Logger;
-
-import com.google.common.base.Charsets;
-import com.google.common.collect.ImmutableList;
-import com.google.common.io.Files;
-
-public class ResultWriter {
-	
-	private static final Logger LOGGER = Logger.getLogger(ResultWriter.class.getName());
-
-	/**
-	 * Header of the result files.
-	 */
-	private static final String HEADER = "Format: ZIP CODE; STREET; LOCALITY; COUNTY; COORDINATES(LAT, LON)\n\n";
-	
-	/**
-	 * File with the streets for which we found at least a valid coordinate.
-	 */
-	public static final File results;
-	
-	/**
-	 * File with the GeoInfo for which we couldn't find the coordinates.
-	 */
-	public static final File errors;
-	
-	/**
-	 * File with the invalid(that don't exist) ZIP codes.
-	 */
-	public static final File invalids;
-	
-	/**
-	 * Counter for number of valid results written.
-	 */
-	private int resultsCounter = 0;
-	
-	/**
-	 * Counter for the number of errors written.
-	 */
-	private int errorsCounter = 0;
-	
-	/**
-	 * Counter for the number of invalids written.
-	 */
-	private int invalidsCounter = 0;
-	
-	
-	static {
-		File dir = new File(System.getProperty("user.home"), "zipcode-translator");
-		if (!dir.exists()) {
-			dir.mkdir();
-		}
-		
-		results = new File(dir, "results.txt");
-		errors = new File(dir, "errors.txt");
-		invalids = new File(dir, "invalids.txt");
-		if (errors.exists()) {
-			errors.delete();
-		}
-	}
-	
-	public ResultWriter() throws IOException {
-		for (File file : ImmutableList.of(results, errors)) {
-			if (!file.exists()) {
-				Files.write(HEADER, file, Charsets.UTF_8);
-			}
-		}
-		if (!invalids.exists()) {
-			Files.write("Format: ZIP CODE\n\n", invalids, Charsets.UTF_8);
-		}
-	}
-
-	/**
-	 * Write results to file.
-	 * 
-	 * @param zipCode value
-	 * @param g Geographical information object
-	 * @param street name(can be null)
-	 * @throws IOException if something went wrong during write()
-	 */
-	public void writeResult(String zipCode, GeoInfo g, String street) throws IOException {
-		resultsCounter++;
-		write(results, zipCode, g, street);
-	}
-	
-	/**
-	 * Write errors to file.
-	 * 
-	 * @param zipCode value
-	 * @param g Geographical information object
-	 * @param street name(can be null)
-	 * @throws IOException if something went wrong during write()
-	 */
-	public void writeError(String zipCode, GeoInfo g, String street) throws IOException {
-		errorsCounter++;
-		write(errors, zipCode, g, street);
-	}
-	
-	/**
-	 * Write invalid ZIP code to file.
-	 * 
-	 * @param zipCode that is invalid
-	 * @throws IOException if something went wrong during append()
-	 */
-	public void writeInvalid(String zipCode) throws IOException {
-		invalidsCounter++;
-		Files.append(zipCode + ";\n", invalids, Charsets.UTF_8);
-	}
-	
-	/**
-	 * Write(in append mode) the message line into the provided file.
-	 * 
-	 * @param file File where to write
-	 * @param zipCode value
-	 * @param g Geographical information object
-	 * @param street name(can be null)
-	 * @throws IOException if something went wrong during append()
-	 */
-	private void write(File file, String zipCode, GeoInfo g, String street) throws IOException {
-		Files.append(getMessage(zipCode, g, street), file, Charsets.UTF_8);
-	}
-	
-	/**
-	 * Get message to be written in a results file.
-	 * 
-	 * @param zipCode value
-	 * @param g Geographical information object
-	 * @param street name(can be null)
-	 * @return message
-	 */
-	private String getMessage(String zipCode, GeoInfo g, String street) {
-		if (g != null) {
-			String str = String.format("%s; %s; %s; %s;", zipCode, street == null ? "-" : street,
-					g.getLocality(), g.getCounty());
-			if (g.hasCoordinates()) {
-				str += String.format(" %s, %s", g.getLatitude(), g.getLongitude());
-			}
-			return str + "\n";
-		} else {
-			return zipCode + "\n";
-		}
-	}
-	
-	/**
-	 * Print to the logger a summary of the actions that happened inside this result writer.
-	 */
-	public void showSummary() {
-		LOGGER.info("Summary:\n" +
-			String.format(" - %d results  written to: %s\n", resultsCounter, results.getAbsolutePath()) +
-			String.format(" - %d invalids written to: %s\n", invalidsCounter, invalids.getAbsolutePath()) +
-			String.format(" - %d errors   written to: %s\n", errorsCounter, errors.getAbsolutePath()));
-	}
-}
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+/**
+ * Writes the lookup results to the result files. Each file is kept open for the whole run and
+ * records are written in batches, flushed when enough of them are pending, when too much time
+ * has passed since the last flush or on an explicit checkpoint(). A batch only ever holds
+ * complete lines, so a crash can at most tear the last line, which is dropped the next time
+ * the files are opened.
+ * <p>
+ * Not thread safe: a single thread has to own the ResultWriter.
+ */
+public class ResultWriter {
+	
+	private static final Logger LOGGER = Logger.getLogger(ResultWriter.class.getName());
+
+	/**
+	 * Header of the result files.
+	 */
+	static final String HEADER = "Format: ZIP CODE; STREET; LOCALITY; COUNTY; COORDINATES(LAT, LON)\n\n";
+	
+	/**
+	 * Header of the invalids file.
+	 */
+	static final String INVALIDS_HEADER = "Format: ZIP CODE\n\n";
+	
+	/**
+	 * Directory where all the files of a run are kept.
+	 */
+	public static final File directory;
+	
+	/**
+	 * File with the streets for which we found at least a valid coordinate.
+	 */
+	public static File results;
+	
+	/**
+	 * File with the GeoInfo for which we couldn't find the coordinates. It keeps a line per failed
+	 * attempt, across runs.
+	 */
+	public static File errors;
+	
+	/**
+	 * File with the invalid(that don't exist) ZIP codes.
+	 */
+	public static File invalids;
+	
+	/**
+	 * Counter for number of valid results written.
+	 */
+	private int resultsCounter = 0;
+	
+	/**
+	 * Counter for the number of errors written.
+	 */
+	private int errorsCounter = 0;
+	
+	/**
+	 * Counter for the number of invalids written.
+	 */
+	private int invalidsCounter = 0;
+	
+	/**
+	 * When to force written records to the disk.
+	 */
+	public enum SyncPolicy {
+		/**
+		 * Leave it to the operating system.
+		 */
+		NEVER,
+		/**
+		 * On each checkpoint() and close().
+		 */
+		CHECKPOINT,
+		/**
+		 * On each flush, i.e. each batch.
+		 */
+		FLUSH
+	}
+	
+	/**
+	 * Number of pending records that triggers a flush.
+	 */
+	private final int flushRecords;
+	
+	/**
+	 * Time(ms) after which pending records are flushed.
+	 */
+	private final long flushInterval;
+	
+	private final SyncPolicy syncPolicy;
+	
+	private final OutputFile resultsOutput;
+	
+	private final OutputFile errorsOutput;
+	
+	private final OutputFile invalidsOutput;
+	
+	/**
+	 * Number of records written, but not flushed yet.
+	 */
+	private int pendingRecords = 0;
+	
+	/**
+	 * When(ms) the records were last flushed.
+	 */
+	private long lastFlush = System.currentTimeMillis();
+	
+	/**
+	 * Geocode cache whose statistics are part of the summary(can be null).
+	 */
+	private GeocodeCache geocodeCache;
+	
+	/**
+	 * Journal of the state of each ZIP code, kept in step with the result files(can be null).
+	 */
+	private ProgressJournal progressJournal;
+	
+	
+	static {
+		directory = new File(System.getProperty("user.home"), "zipcode-translator");
+		if (!directory.exists()) {
+			directory.mkdir();
+		}
+		
+		useShard(Shard.ALL);
+	}
+	
+	/**
+	 * Use the result files of a shard, suffixed with its number, instead of the canonical ones.
+	 * Has to be called before any ResultWriter is created or any result file is read.
+	 * 
+	 * @param shard Shard object
+	 */
+	public static void useShard(Shard shard) {
+		results = file("results", shard);
+		errors = file("errors", shard);
+		invalids = file("invalids", shard);
+	}
+	
+	/**
+	 * Get a file of a shard in the directory.
+	 * 
+	 * @param name base name of the file
+	 * @param shard Shard object
+	 * @return e.g. results-shard2of4.txt
+	 */
+	public static File file(String name, Shard shard) {
+		return new File(directory, name + shard.getSuffix() + ".txt");
+	}
+	
+	/**
+	 * Open the result files, creating them if needed.
+	 * 
+	 * @param flushRecords number of pending records that triggers a flush
+	 * @param flushInterval time(ms) after which pending records are flushed
+	 * @param syncPolicy when to force written records to the disk
+	 * @throws IOException if the result files couldn't be opened
+	 */
+	public ResultWriter(int flushRecords, long flushInterval, SyncPolicy syncPolicy) throws IOException {
+		this.flushRecords = flushRecords;
+		this.flushInterval = flushInterval;
+		this.syncPolicy = syncPolicy;
+		
+		for (File file : ImmutableList.of(results, errors)) {
+			if (!file.exists()) {
+				Files.write(HEADER, file, Charsets.UTF_8);
+			}
+		}
+		if (!invalids.exists()) {
+			Files.write(INVALIDS_HEADER, invalids, Charsets.UTF_8);
+		}
+		
+		resultsOutput = new OutputFile(results);
+		errorsOutput = new OutputFile(errors);
+		invalidsOutput = new OutputFile(invalids);
+	}
+
+	/**
+	 * Set the geocode cache whose hit/miss counters are reported by showSummary().
+	 * 
+	 * @param geocodeCache GeocodeCache object
+	 */
+	public void setGeocodeCache(GeocodeCache geocodeCache) {
+		this.geocodeCache = geocodeCache;
+	}
+
+	/**
+	 * Set the progress journal where the state of each written ZIP code is recorded. It's
+	 * flushed right after the result files, with the same sync policy.
+	 * 
+	 * @param progressJournal ProgressJournal object
+	 */
+	public void setProgressJournal(ProgressJournal progressJournal) {
+		this.progressJournal = progressJournal;
+	}
+
+	/**
+	 * Write results to file.
+	 * 
+	 * @param zipCode value
+	 * @param g Geographical information object
+	 * @param street name(can be null)
+	 * @throws IOException if something went wrong during write()
+	 */
+	public void writeResult(String zipCode, GeoInfo g, String street) throws IOException {
+		resultsCounter++;
+		write(resultsOutput, zipCode, g, street);
+	}
+	
+	/**
+	 * Write errors to file.
+	 * 
+	 * @param zipCode value
+	 * @param g Geographical information object
+	 * @param street name(can be null)
+	 * @throws IOException if something went wrong during write()
+	 */
+	public void writeError(String zipCode, GeoInfo g, String street) throws IOException {
+		errorsCounter++;
+		write(errorsOutput, zipCode, g, street);
+	}
+	
+	/**
+	 * Write invalid ZIP code to file.
+	 * 
+	 * @param zipCode that is invalid
+	 * @throws IOException if something went wrong during write()
+	 */
+	public void writeInvalid(String zipCode) throws IOException {
+		invalidsCounter++;
+		append(invalidsOutput, zipCode + ";\n");
+	}
+	
+	/**
+	 * Write a lookup result to the file corresponding to its kind.
+	 * 
+	 * @param result LookupResult object
+	 * @throws IOException if something went wrong during write()
+	 */
+	public void write(LookupResult result) throws IOException {
+		if (progressJournal != null) {
+			progressJournal.record(result.getZipCode(), result.getKind());
+		}
+		switch (result.getKind()) {
+		case RESULT:
+			writeResult(result.getZipCode(), result.getGeoInfo(), result.getStreet());
+			break;
+		case INVALID:
+			writeInvalid(result.getZipCode());
+			break;
+		case ERROR:
+			writeError(result.getZipCode(), result.getGeoInfo(), result.getStreet());
+			break;
+		}
+	}
+	
+	/**
+	 * Flush the pending records if there are enough of them or if they have been pending for too long.
+	 * Should be called periodically when there's nothing to write.
+	 * 
+	 * @throws IOException if something went wrong during write()
+	 */
+	public void flushIfDue() throws IOException {
+		if (pendingRecords >= flushRecords
+				|| (pendingRecords > 0 && System.currentTimeMillis() - lastFlush >= flushInterval)) {
+			flush(syncPolicy == SyncPolicy.FLUSH);
+		}
+	}
+	
+	/**
+	 * Write all pending records to disk and force them to the disk unless the sync policy is NEVER.
+	 * 
+	 * @throws IOException if something went wrong during write()
+	 */
+	public void checkpoint() throws IOException {
+		flush(syncPolicy != SyncPolicy.NEVER);
+	}
+	
+	/**
+	 * Checkpoint and close the result files.
+	 * 
+	 * @throws IOException if something went wrong during write() or close()
+	 */
+	public void close() throws IOException {
+		try {
+			checkpoint();
+		} finally {
+			resultsOutput.close();
+			errorsOutput.close();
+			invalidsOutput.close();
+		}
+	}
+	
+	/**
+	 * Write(in append mode) the message line into the provided file.
+	 * 
+	 * @param output OutputFile where to write
+	 * @param zipCode value
+	 * @param g Geographical information object
+	 * @param street name(can be null)
+	 * @throws IOException if something went wrong during write()
+	 */
+	private void write(OutputFile output, String zipCode, GeoInfo g, String street) throws IOException {
+		append(output, getMessage(zipCode, g, street));
+	}
+	
+	private void append(OutputFile output, String line) throws IOException {
+		output.append(line);
+		Metrics.increment(Metrics.RESULTS_WRITTEN);
+		pendingRecords++;
+		flushIfDue();
+	}
+	
+	private void flush(boolean sync) throws IOException {
+		final long start = System.nanoTime();
+		resultsOutput.flush(sync);
+		errorsOutput.flush(sync);
+		invalidsOutput.flush(sync);
+		if (progressJournal != null) {
+			progressJournal.flush(sync);
+		}
+		Metrics.record(Metrics.RESULTS_FLUSH, start);
+		pendingRecords = 0;
+		lastFlush = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Get message to be written in a results file.
+	 * 
+	 * @param zipCode value
+	 * @param g Geographical information object
+	 * @param street name(can be null)
+	 * @return message
+	 */
+	static String getMessage(String zipCode, GeoInfo g, String street) {
+		if (g != null) {
+			String str = String.format("%s; %s; %s; %s;", zipCode, street == null ? "-" : street,
+					g.getLocality(), g.getCounty());
+			if (g.hasCoordinates()) {
+				str += String.format(" %s, %s", g.getLatitude(), g.getLongitude());
+			}
+			return str + "\n";
+		} else {
+			return zipCode + "\n";
+		}
+	}
+	
+	/**
+	 * Print to the logger a summary of the actions that happened inside this result writer.
+	 */
+	public void showSummary() {
+		String summary = "Summary:\n" +
+			String.format(" - %d results  written to: %s\n", resultsCounter, results.getAbsolutePath()) +
+			String.format(" - %d invalids written to: %s\n", invalidsCounter, invalids.getAbsolutePath()) +
+			String.format(" - %d errors   written to: %s\n", errorsCounter, errors.getAbsolutePath());
+		if (geocodeCache != null) {
+			summary += String.format(" - %d geocode cache hits, %d misses\n", geocodeCache.getHits(), geocodeCache.getMisses());
+		}
+		LOGGER.info(summary);
+	}
+	
+	/**
+	 * Result file kept open in append mode, with a buffer of complete lines.
+	 */
+	private static class OutputFile {
+		
+		private final FileOutputStream out;
+		
+		private final FileChannel channel;
+		
+		private final StringBuilder buffer = new StringBuilder();
+		
+		/**
+		 * True if lines were written since the last sync.
+		 */
+		private boolean dirty = false;
+		
+		
+		public OutputFile(File file) throws IOException {
+			dropTornLine(file);
+			out = new FileOutputStream(file, true);
+			channel = out.getChannel();
+		}
+		
+		public void append(String line) {
+			buffer.append(line);
+		}
+		
+		public void flush(boolean sync) throws IOException {
+			if (buffer.length() > 0) {
+				ByteBuffer bytes = Charsets.UTF_8.encode(CharBuffer.wrap(buffer));
+				while (bytes.hasRemaining()) {
+					channel.write(bytes);
+				}
+				buffer.setLength(0);
+				dirty = true;
+			}
+			if (sync && dirty) {
+				channel.force(false);
+				dirty = false;
+			}
+		}
+		
+		public void close() throws IOException {
+			out.close();
+		}
+		
+		/**
+		 * Truncate the file after its last complete line, dropping a line torn by a crash.
+		 */
+		private static void dropTornLine(File file) throws IOException {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				long length = raf.length();
+				while (length > 0) {
+					raf.seek(length - 1);
+					if (raf.read() == '\n') {
+						break;
+					}
+					length--;
+				}
+				if (length != raf.length()) {
+					LOGGER.warning("Dropping incomplete last line of " + file.getAbsolutePath());
+					raf.setLength(length);
+				}
+			} finally {
+				raf.close();
+			}
+		}
+	}
+}
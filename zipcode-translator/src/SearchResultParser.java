@@ -0,0 +1,69 @@
+/**
+ * Parses a line of the Coduri Postale search results, having the format:
+ * <code>
+ * Locality(County), Street
+ * </code>
+ * Street being optional. The line is scanned once, finding the last "),", and the last '('
+ * before it, which gives the same groups as matching <code>(.+)\((.+)\),(.+)?</code> but
+ * without the backtracking of the greedy groups on long street names.
+ */
+public class SearchResultParser {
+
+	private SearchResultParser() {
+	}
+
+	/**
+	 * Parse a search result text and fill the county, locality and street information
+	 * into the GeoInfo object. The text is translated to English and the street name is
+	 * cleaned up, ready to be searched on Google Maps.
+	 *
+	 * @param g GeoInfo object
+	 * @param text search result text
+	 * @return true if the text had the expected format
+	 */
+	public static boolean parse(GeoInfo g, String text) {
+		text = TextNormalizer.fold(text);
+
+		// Like the '.' of a regex, the groups never span a line terminator, and the first line
+		// having the format wins
+		int from = 0;
+		while (from <= text.length()) {
+			int to = from;
+			while (to < text.length() && !isLineTerminator(text.charAt(to))) {
+				to++;
+			}
+			if (parse(g, text, from, to)) {
+				return true;
+			}
+			from = to + 1;
+		}
+		return false;
+	}
+
+	private static boolean parse(GeoInfo g, String text, int from, int to) {
+		// Closing parenthesis of the county
+		final int close = text.lastIndexOf("),", to - 2);
+		if (close < from) {
+			return false;
+		}
+
+		// Opening parenthesis of the county, leaving at least one char for both locality and county
+		final int open = text.lastIndexOf('(', close - 2);
+		if (open < from + 1) {
+			return false;
+		}
+
+		g.setLocality(text.substring(from, open));
+		g.setCounty(text.substring(open + 1, close));
+
+		// If present and valid
+		if (to - (close + 2) > 1) {
+			g.addStreet(Main.cleanupStreetName(text.substring(close + 2, to)));
+		}
+		return true;
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+}
@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+
+/**
+ * Streaming parser of the HTML of the Coduri Postale search results, the table displayed in
+ * #searchResults:
+ * <code>
+ * &lt;table&gt;
+ *   &lt;tr&gt;&lt;th&gt;Cod postal&lt;/th&gt;&lt;th&gt;Adresa&lt;/th&gt;...&lt;/tr&gt;
+ *   &lt;tr&gt;&lt;td&gt;110001&lt;/td&gt;&lt;td&gt;Pitesti(Arges), Strada ...&lt;/td&gt;...&lt;/tr&gt;
+ * &lt;/table&gt;
+ * </code>
+ * The markup is read char by char, only the text of the second cell of each row being kept,
+ * whitespace collapsed and &lt;br&gt; turned into a line break, like the text the browser displays.
+ * Everything after the first table is ignored.
+ */
+public class SearchResultsHtmlParser {
+
+	/**
+	 * Maximum length of the name of a character reference, between '&amp;' and ';'.
+	 */
+	private static final int ENTITY_LENGTH = 10;
+
+	private SearchResultsHtmlParser() {
+	}
+
+	/**
+	 * Parse search results into a GeoInfo object, like getInformationFromCoduriPostale does
+	 * with the table displayed by the browser.
+	 *
+	 * @param in HTML of the search results
+	 * @return GeoInfo object or null if the results hold no valid information
+	 * @throws IOException if the HTML couldn't be read
+	 * @throws IllegalStateException if the HTML holds no results table
+	 */
+	public static GeoInfo parse(Reader html) throws IOException {
+		PushbackReader in = new PushbackReader(html, ENTITY_LENGTH + 1);
+		GeoInfo g = new GeoInfo();
+		StringBuilder tag = new StringBuilder();
+		StringBuilder text = new StringBuilder();
+		boolean inTable = false;
+		int row = -1;
+		int cell = -1;
+		boolean space = false;
+
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c != '<') {
+				if (inTable && cell == 1) {
+					if (c == '&') {
+						c = readEntity(in);
+					}
+					if (Character.isWhitespace(c) || c == '\u00A0') {
+						space = text.length() > 0 && text.charAt(text.length() - 1) != '\n';
+					} else {
+						if (space) {
+							text.append(' ');
+							space = false;
+						}
+						text.append((char) c);
+					}
+				}
+				continue;
+			}
+
+			final String name = readTag(in, tag);
+			if (name.equals("table")) {
+				inTable = true;
+			} else if (!inTable) {
+				continue;
+			} else if (name.equals("/table")) {
+				break;
+			} else if (name.equals("tr")) {
+				row++;
+				cell = -1;
+			} else if (name.equals("td") || name.equals("th")) {
+				// Only the text of the address cell is kept, whatever cells follow it
+				if (++cell == 1) {
+					text.setLength(0);
+					space = false;
+				}
+			} else if (name.equals("br") && cell == 1) {
+				text.append('\n');
+				space = false;
+			} else if (name.equals("/tr") && row > 0) {
+				// Skip table header
+				if (cell < 1) {
+					// No valid information has been returned
+					return null;
+				}
+				Main.getCountyLocalityAndStreets(g, text.toString());
+				cell = -1;
+			}
+		}
+
+		if (!inTable) {
+			throw new IllegalStateException("No search results table");
+		}
+		return g;
+	}
+
+	/**
+	 * Read a tag, having read its '&lt;'.
+	 *
+	 * @return lower case name of the tag, prefixed with '/' for an end tag
+	 */
+	private static String readTag(Reader in, StringBuilder tag) throws IOException {
+		tag.setLength(0);
+		boolean inName = true;
+		int c;
+		while ((c = in.read()) != -1 && c != '>') {
+			if (inName) {
+				if (Character.isLetterOrDigit(c) || (c == '/' && tag.length() == 0)) {
+					tag.append((char) Character.toLowerCase(c));
+				} else if (tag.length() > 0) {
+					inName = false;
+				}
+			}
+		}
+		return tag.toString();
+	}
+
+	/**
+	 * Read a character reference, having read its '&amp;'. A stray '&amp;', not followed by a
+	 * reference name and ';', is taken literally and the chars read after it are pushed back.
+	 *
+	 * @return the referenced char, '?' if it isn't known, or '&amp;' if it isn't a reference
+	 */
+	private static int readEntity(PushbackReader in) throws IOException {
+		char[] entity = new char[ENTITY_LENGTH];
+		int length = 0;
+		int c;
+		while (length < entity.length && (c = in.read()) != -1) {
+			if (c == ';') {
+				return resolveEntity(new String(entity, 0, length));
+			}
+			if (!Character.isLetterOrDigit(c) && c != '#') {
+				in.unread(c);
+				break;
+			}
+			entity[length++] = (char) c;
+		}
+		in.unread(entity, 0, length);
+		return '&';
+	}
+
+	/**
+	 * Get the char referenced by the name of a character reference.
+	 *
+	 * @return the referenced char, or '?' if it isn't known
+	 */
+	private static int resolveEntity(String name) {
+		if (name.startsWith("#x") || name.startsWith("#X")) {
+			return parseCode(name.substring(2), 16);
+		} else if (name.startsWith("#")) {
+			return parseCode(name.substring(1), 10);
+		} else if (name.equals("amp")) {
+			return '&';
+		} else if (name.equals("lt")) {
+			return '<';
+		} else if (name.equals("gt")) {
+			return '>';
+		} else if (name.equals("quot")) {
+			return '"';
+		} else if (name.equals("apos")) {
+			return '\'';
+		} else if (name.equals("nbsp")) {
+			return ' ';
+		}
+		return '?';
+	}
+
+	private static int parseCode(String code, int radix) {
+		try {
+			final int c = Integer.parseInt(code, radix);
+			return c <= Character.MAX_VALUE ? c : '?';
+		} catch (NumberFormatException e) {
+			return '?';
+		}
+	}
+}
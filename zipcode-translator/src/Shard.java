@@ -0,0 +1,81 @@
+/**
+ * Stable hash partition of the ZIP codes, so several processes or machines can each work
+ * through a disjoint part of the same input. Shards are numbered from 1 to the number of
+ * shards, and a ZIP code always falls in the same shard for a given number of shards.
+ */
+public class Shard {
+
+	/**
+	 * The single shard holding all the ZIP codes.
+	 */
+	public static final Shard ALL = new Shard(1, 1);
+
+	private final int index;
+
+	private final int count;
+
+
+	/**
+	 * @param index shard number, from 1 to count
+	 * @param count number of shards
+	 * @throws IllegalArgumentException if the shard number is out of range
+	 */
+	public Shard(int index, int count) {
+		if (count < 1 || index < 1 || index > count) {
+			throw new IllegalArgumentException("Shard has to be between 1/" + count + " and " + count + "/" + count +
+					": " + index + "/" + count);
+		}
+		this.index = index;
+		this.count = count;
+	}
+
+	/**
+	 * Parse a shard given as "i/n".
+	 *
+	 * @param shard shard string
+	 * @return Shard object
+	 * @throws IllegalArgumentException if the shard string isn't valid
+	 */
+	public static Shard parse(String shard) {
+		final int slash = shard.indexOf('/');
+		if (slash == -1) {
+			throw new IllegalArgumentException("Shard has to be given as i/n: " + shard);
+		}
+		return new Shard(Integer.parseInt(shard.substring(0, slash).trim()),
+				Integer.parseInt(shard.substring(slash + 1).trim()));
+	}
+
+	/**
+	 * Ascertains if a ZIP code falls in this shard.
+	 *
+	 * @param zipCode value
+	 * @return true if the ZIP code is to be processed by this shard
+	 */
+	public boolean contains(int zipCode) {
+		if (count == 1) {
+			return true;
+		}
+		// Spread the dense ZIP codes(murmur3 finalizer), so shards get even parts of any range
+		int h = zipCode;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return (h & Integer.MAX_VALUE) % count == index - 1;
+	}
+
+	/**
+	 * Get the suffix of the files written by this shard.
+	 *
+	 * @return e.g. "-shard2of4", or "" for the single shard
+	 */
+	public String getSuffix() {
+		return count == 1 ? "" : "-shard" + index + "of" + count;
+	}
+
+	@Override
+	public String toString() {
+		return index + "/" + count;
+	}
+}
@@ -0,0 +1,307 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Merges the result files written by the shards of a run, together with the canonical result
+ * files, back into the canonical results.txt, invalids.txt and errors.txt.
+ * <p>
+ * Lines are sorted by ZIP code with an external merge sort: they're read in runs of at most
+ * RUN_LINES lines, each run is sorted and written to a temporary file, then the runs are
+ * merged, so memory stays bounded whatever the size of the files. A ZIP code found more than
+ * once keeps a single line, and errors of ZIP codes that have a result or are invalid are dropped.
+ * <p>
+ * The canonical progress journal is then rebuilt from the merged files and the journals of the
+ * shards, so the failed attempts of each ZIP code survive the single line left in errors.txt.
+ */
+public class ShardMerger {
+
+	private static final Logger LOGGER = Logger.getLogger(ShardMerger.class.getName());
+
+	/**
+	 * Maximum number of lines sorted in memory at once.
+	 */
+	private static final int RUN_LINES = 200000;
+
+	/**
+	 * Lines of header at the top of each result file.
+	 */
+	private static final int HEADER_LINES = 2;
+
+	/**
+	 * Orders lines by ZIP code, then by the whole line so the kept line doesn't depend on the input order.
+	 */
+	private static final Comparator<String> BY_ZIP_CODE = new Comparator<String>() {
+		@Override
+		public int compare(String a, String b) {
+			final int keys = key(a).compareTo(key(b));
+			return keys != 0 ? keys : a.compareTo(b);
+		}
+	};
+
+	private final File directory;
+
+	/**
+	 * Number of failed attempts after which a ZIP code is parked.
+	 */
+	private final int maxAttempts;
+
+
+	/**
+	 * @param directory directory of the result files
+	 * @param maxAttempts number of failed attempts after which a ZIP code is parked
+	 */
+	public ShardMerger(File directory, int maxAttempts) {
+		this.directory = directory;
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Merge the shard files into the canonical result files. The shard files are left in place.
+	 *
+	 * @throws IOException if something went wrong during read or write
+	 */
+	public void merge() throws IOException {
+		File results = merge("results", ResultWriter.HEADER, null);
+		File invalids = merge("invalids", ResultWriter.INVALIDS_HEADER, null);
+		File errors = merge("errors", ResultWriter.HEADER, new File[]{results, invalids});
+
+		replace(results, ResultWriter.results);
+		replace(invalids, ResultWriter.invalids);
+		replace(errors, ResultWriter.errors);
+		// The canonical progress journal no longer matches the merged files
+		ProgressJournal.rebuild(maxAttempts);
+	}
+
+	/**
+	 * Merge the canonical file and the shard files of a kind into a sorted temporary file.
+	 *
+	 * @param name base name of the files, e.g. "results"
+	 * @param header header of the merged file
+	 * @param exclusions sorted files whose ZIP codes are left out, or null
+	 * @return merged file
+	 */
+	private File merge(String name, String header, File[] exclusions) throws IOException {
+		final Pattern pattern = Pattern.compile(Pattern.quote(name) + "(-shard\\d+of\\d+)?\\.txt");
+		File[] inputs = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String file) {
+				return pattern.matcher(file).matches();
+			}
+		});
+
+		List<File> runs = new ArrayList<File>();
+		long lines = 0;
+		try {
+			for (File input : inputs) {
+				lines += split(input, runs);
+			}
+
+			File merged = File.createTempFile(name, ".merged", directory);
+			final long written = mergeRuns(runs, merged, header, exclusions);
+			LOGGER.info(String.format("Merged %d lines of %d %s files into %d lines.", lines, inputs.length, name,
+					written));
+			return merged;
+		} finally {
+			for (File run : runs) {
+				run.delete();
+			}
+		}
+	}
+
+	/**
+	 * Split a file into sorted runs.
+	 *
+	 * @param input result file
+	 * @param runs receives the run files
+	 * @return number of lines read
+	 */
+	private long split(File input, List<File> runs) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(input), Charsets.UTF_8));
+		long count = 0;
+		try {
+			for (int i = 0; i < HEADER_LINES; i++) {
+				reader.readLine();
+			}
+
+			List<String> run = new ArrayList<String>();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				run.add(line);
+				count++;
+				if (run.size() == RUN_LINES) {
+					runs.add(writeRun(run));
+					run.clear();
+				}
+			}
+			if (!run.isEmpty()) {
+				runs.add(writeRun(run));
+			}
+		} finally {
+			reader.close();
+		}
+		return count;
+	}
+
+	private File writeRun(List<String> lines) throws IOException {
+		Collections.sort(lines, BY_ZIP_CODE);
+		File run = File.createTempFile("run", ".tmp", directory);
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(run), Charsets.UTF_8));
+		try {
+			for (String line : lines) {
+				out.write(line);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+		return run;
+	}
+
+	/**
+	 * Merge sorted runs into a result file, keeping one line per ZIP code.
+	 *
+	 * @return number of lines written
+	 */
+	private long mergeRuns(List<File> runs, File output, String header, File[] exclusions) throws IOException {
+		PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(Math.max(1, runs.size()), new Comparator<Cursor>() {
+			@Override
+			public int compare(Cursor a, Cursor b) {
+				return BY_ZIP_CODE.compare(a.line, b.line);
+			}
+		});
+		List<Cursor> excluded = new ArrayList<Cursor>();
+		long count = 0;
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), Charsets.UTF_8));
+		try {
+			for (File run : runs) {
+				Cursor cursor = new Cursor(run, 0);
+				if (cursor.line != null) {
+					queue.add(cursor);
+				}
+			}
+			if (exclusions != null) {
+				for (File exclusion : exclusions) {
+					excluded.add(new Cursor(exclusion, HEADER_LINES));
+				}
+			}
+
+			out.write(header);
+			String last = null;
+			while (!queue.isEmpty()) {
+				Cursor cursor = queue.poll();
+				final String line = cursor.line;
+				final String key = key(line);
+				if (cursor.advance()) {
+					queue.add(cursor);
+				}
+
+				if ((last == null || !last.equals(key)) && !isExcluded(excluded, key)) {
+					out.write(line);
+					out.write('\n');
+					count++;
+				}
+				last = key;
+			}
+		} finally {
+			for (Cursor cursor : queue) {
+				cursor.close();
+			}
+			for (Cursor cursor : excluded) {
+				cursor.close();
+			}
+			out.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Ascertains if a ZIP code is in any of the sorted exclusion files, moving their cursors up to it.
+	 */
+	private static boolean isExcluded(List<Cursor> excluded, String key) throws IOException {
+		boolean found = false;
+		for (Cursor cursor : excluded) {
+			while (cursor.line != null && key(cursor.line).compareTo(key) < 0) {
+				cursor.advance();
+			}
+			found |= cursor.line != null && key(cursor.line).equals(key);
+		}
+		return found;
+	}
+
+	/**
+	 * Replace a canonical file with its merged version in one step, so a crash leaves either of them.
+	 */
+	private static void replace(File merged, File canonical) throws IOException {
+		Files.move(merged.toPath(), canonical.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Get the ZIP code of a result line.
+	 *
+	 * @param line result line
+	 * @return ZIP code
+	 */
+	private static String key(String line) {
+		final int pos = line.indexOf(';');
+		return pos == -1 ? line.trim() : line.substring(0, pos).trim();
+	}
+
+	/**
+	 * Current line of a sorted file.
+	 */
+	private static class Cursor {
+
+		private final BufferedReader reader;
+
+		private String line;
+
+
+		public Cursor(File file, int skip) throws IOException {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+			for (int i = 0; i < skip; i++) {
+				reader.readLine();
+			}
+			advance();
+		}
+
+		/**
+		 * Move to the next line, closing the file at its end.
+		 *
+		 * @return true if there is a next line
+		 */
+		public boolean advance() throws IOException {
+			line = reader.readLine();
+			if (line == null) {
+				reader.close();
+			}
+			return line != null;
+		}
+
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Folds the Romanian diacritics into their English letters, in a single pass over the text:
+ * <code>
+ * &#x103; &#xE2; -&gt; a   &#xEE; -&gt; i   &#x219; &#x15F; -&gt; s   &#x21B; &#x163; -&gt; t
+ * </code>
+ * and the same for the capitals. Both the comma below and the cedilla forms of s and t are folded.
+ */
+public class TextNormalizer {
+
+	/**
+	 * Lowest char that might have to be folded.
+	 */
+	private static final char FIRST = '\u00C2';
+
+	/**
+	 * Folded char for each char from FIRST on, or 0 if the char is kept.
+	 */
+	private static final char[] FOLDED = new char['\u021B' - FIRST + 1];
+
+	static {
+		fold('\u0103', 'a');
+		fold('\u00EE', 'i');
+		fold('\u00E2', 'a');
+		fold('\u015F', 's');
+		fold('\u0219', 's');
+		fold('\u021B', 't');
+		fold('\u0163', 't');
+
+		fold('\u0102', 'A');
+		fold('\u00CE', 'I');
+		fold('\u00C2', 'A');
+		fold('\u0218', 'S');
+		fold('\u015E', 'S');
+		fold('\u021A', 'T');
+		fold('\u0162', 'T');
+	}
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+
+	private TextNormalizer() {
+	}
+
+	private static void fold(char from, char to) {
+		FOLDED[from - FIRST] = to;
+	}
+
+	/**
+	 * Fold the diacritics of a text.
+	 *
+	 * @param text to be folded(can be null)
+	 * @return folded text, the same instance if there was nothing to fold
+	 */
+	public static String fold(String text) {
+		if (text == null) {
+			return null;
+		}
+
+		// Fast path: most texts have nothing to fold
+		int i = 0;
+		while (i < text.length() && folded(text.charAt(i)) == 0) {
+			i++;
+		}
+		if (i == text.length()) {
+			return text;
+		}
+
+		char[] chars = text.toCharArray();
+		fold(chars, i, chars.length);
+		return new String(chars);
+	}
+
+	/**
+	 * Fold the diacritics of a whole text file, e.g. scraped or ZIP-GEO data, into another file.
+	 *
+	 * @param source file to be folded
+	 * @param destination file receiving the folded text
+	 * @param charset encoding of both files
+	 * @throws IOException if something went wrong during read or write
+	 */
+	public static void fold(File source, File destination, Charset charset) throws IOException {
+		Reader in = new InputStreamReader(new FileInputStream(source), charset);
+		try {
+			Writer out = new OutputStreamWriter(new FileOutputStream(destination), charset);
+			try {
+				fold(in, out);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Fold the diacritics of a stream of text, chunk by chunk.
+	 *
+	 * @param in text to be folded
+	 * @param out receives the folded text
+	 * @throws IOException if something went wrong during read or write
+	 */
+	public static void fold(Reader in, Writer out) throws IOException {
+		char[] buffer = new char[CHUNK_SIZE];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			fold(buffer, 0, count);
+			out.write(buffer, 0, count);
+		}
+	}
+
+	private static void fold(char[] chars, int from, int to) {
+		for (int i = from; i < to; i++) {
+			final char c = folded(chars[i]);
+			if (c != 0) {
+				chars[i] = c;
+			}
+		}
+	}
+
+	private static char folded(char c) {
+		final int i = c - FIRST;
+		return i >= 0 && i < FOLDED.length ? FOLDED[i] : 0;
+	}
+}
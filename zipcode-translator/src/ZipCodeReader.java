@@ -0,0 +1,122 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.logging.Logger;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Reads ZIP codes lazily from an input file of any size, skipping the ones the progress journal
+ * has as done, the ones already read in this run and the ones that belong to other shards.
+ * Only one chunk of the file is held in memory at a time.
+ */
+public class ZipCodeReader implements Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger(ZipCodeReader.class.getName());
+
+	private final Reader reader;
+
+	private final ZipCodeScanner scanner;
+
+	/**
+	 * State of the ZIP codes processed so far.
+	 */
+	private final ProgressJournal progressJournal;
+
+	/**
+	 * Shard whose ZIP codes are read.
+	 */
+	private final Shard shard;
+
+	/**
+	 * ZIP code read ahead by the constructor.
+	 */
+	private int next;
+
+	private int found = 0;
+
+	private int skipped = 0;
+
+	private int repeated = 0;
+
+	private int otherShards = 0;
+
+
+	/**
+	 * Open the input file and check that it has at least one valid ZIP code.
+	 *
+	 * @param file input file
+	 * @param zipCodeLength number of digits of a valid ZIP code
+	 * @param progressJournal journal of the ZIP codes to be skipped
+	 * @param shard shard whose ZIP codes are read
+	 * @throws IOException if the file couldn't be read or has no valid ZIP code
+	 */
+	public ZipCodeReader(File file, int zipCodeLength, ProgressJournal progressJournal, Shard shard) throws IOException {
+		this.progressJournal = progressJournal;
+		this.shard = shard;
+		reader = new InputStreamReader(new FileInputStream(file), Charsets.UTF_8);
+		scanner = new ZipCodeScanner(reader, zipCodeLength);
+
+		next = readValid();
+		if (next == -1) {
+			reader.close();
+			throw new IOException("No valid zip codes were found in the input file" +
+					(shard == Shard.ALL ? "" : " for shard " + shard));
+		}
+	}
+
+	/**
+	 * Read the next ZIP code to be processed.
+	 *
+	 * @return ZIP code or null if the end of the input file has been reached
+	 * @throws IOException if the file couldn't be read
+	 */
+	public String read() throws IOException {
+		int zipCode = next != -1 ? next : readValid();
+		next = -1;
+
+		while (zipCode != -1) {
+			if (progressJournal.isDone(zipCode)) {
+				skipped++;
+			} else if (!progressJournal.claim(zipCode)) {
+				repeated++;
+			} else {
+				break;
+			}
+			zipCode = readValid();
+		}
+
+		if (zipCode == -1) {
+			LOGGER.info("Found " + found + " zip codes, of which " + skipped + " had already been processed or parked, " +
+					repeated + " were repeated" +
+					(otherShards > 0 ? " and " + otherShards + " belong to other shards than " + shard : "") + ". " +
+					"Skipped " + scanner.getInvalidTokens() + " invalid zip codes.");
+		}
+		return zipCode == -1 ? null : scanner.format(zipCode);
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * Read the next valid ZIP code of the shard, whether it has been processed or not.
+	 *
+	 * @return ZIP code or -1 if the end of the input file has been reached
+	 */
+	private int readValid() throws IOException {
+		int zipCode;
+		while ((zipCode = scanner.next()) != -1) {
+			found++;
+			if (shard.contains(zipCode)) {
+				return zipCode;
+			}
+			otherShards++;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.logging.Logger;
+
+/**
+ * Splits text into tokens and returns the ones that are valid ZIP codes, i.e. have exactly the
+ * configured number of digits. The text is scanned in chunks of chars, without creating
+ * an object or throwing an exception per token.
+ * <p>
+ * Invalid tokens are only counted; the first few of them are logged as a sample.
+ */
+public class ZipCodeScanner {
+
+	private static final Logger LOGGER = Logger.getLogger(ZipCodeScanner.class.getName());
+
+	/**
+	 * Characters separating the tokens, besides line terminators.
+	 */
+	public static final String DELIMITERS = " ,.;-\t";
+
+	/**
+	 * Number of digits of a Romanian ZIP code.
+	 */
+	public static final int DEFAULT_LENGTH = 6;
+
+	/**
+	 * Number of invalid tokens that are logged.
+	 */
+	private static final int LOGGED_INVALID_TOKENS = 10;
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private static final boolean[] DELIMITER = new boolean[128];
+
+	static {
+		for (char c : (DELIMITERS + "\r\n").toCharArray()) {
+			DELIMITER[c] = true;
+		}
+	}
+
+	private final Reader reader;
+
+	private final int length;
+
+	private final char[] buffer = new char[CHUNK_SIZE];
+
+	private int position = 0;
+
+	private int limit = 0;
+
+	/**
+	 * Text of the current token, only kept while invalid tokens are still being logged.
+	 */
+	private final StringBuilder token = new StringBuilder();
+
+	private long invalidTokens = 0;
+
+
+	/**
+	 * @param reader text to be scanned
+	 * @param length number of digits of a valid ZIP code(at most 9)
+	 */
+	public ZipCodeScanner(Reader reader, int length) {
+		if (length < 1 || length > 9) {
+			throw new IllegalArgumentException("Unsupported zip code length: " + length);
+		}
+		this.reader = reader;
+		this.length = length;
+	}
+
+	/**
+	 * Get the next valid ZIP code.
+	 *
+	 * @return ZIP code or -1 if the end of the text has been reached
+	 * @throws IOException if the text couldn't be read
+	 */
+	public int next() throws IOException {
+		int value = 0;
+		int chars = 0;
+		boolean digits = true;
+
+		while (true) {
+			if (position == limit && !fill()) {
+				if (chars == 0) {
+					return -1;
+				}
+				if (digits && chars == length) {
+					return value;
+				}
+				invalid();
+				return -1;
+			}
+
+			final char c = buffer[position++];
+			if (c < DELIMITER.length && DELIMITER[c]) {
+				if (chars > 0) {
+					if (digits && chars == length) {
+						return value;
+					}
+					invalid();
+					value = 0;
+					chars = 0;
+					digits = true;
+				}
+				continue;
+			}
+
+			if (c >= '0' && c <= '9') {
+				if (chars < length) {
+					value = value * 10 + c - '0';
+				}
+			} else {
+				digits = false;
+			}
+			chars++;
+
+			if (invalidTokens < LOGGED_INVALID_TOKENS) {
+				if (chars == 1) {
+					token.setLength(0);
+				}
+				token.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Get the number of tokens that were not valid ZIP codes.
+	 *
+	 * @return number of invalid tokens
+	 */
+	public long getInvalidTokens() {
+		return invalidTokens;
+	}
+
+	/**
+	 * Get the number of digits of a valid ZIP code.
+	 *
+	 * @return ZIP code length
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Format a ZIP code returned by next(), keeping its leading zeros.
+	 *
+	 * @param zipCode value
+	 * @return ZIP code string
+	 */
+	public String format(int zipCode) {
+		char[] chars = new char[length];
+		for (int i = length - 1; i >= 0; i--) {
+			chars[i] = (char) ('0' + zipCode % 10);
+			zipCode /= 10;
+		}
+		return new String(chars);
+	}
+
+	private boolean fill() throws IOException {
+		position = 0;
+		limit = Math.max(reader.read(buffer, 0, buffer.length), 0);
+		return limit > 0;
+	}
+
+	private void invalid() {
+		if (invalidTokens < LOGGED_INVALID_TOKENS) {
+			LOGGER.warning("Invalid zip code found: " + token);
+		}
+		invalidTokens++;
+		if (invalidTokens == LOGGED_INVALID_TOKENS) {
+			LOGGER.warning("Further invalid zip codes are only counted.");
+		}
+	}
+}
@@ -0,0 +1,267 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Binary index of geocoded ZIP codes, compiled from a results file and memory-mapped for
+ * lookups, so it's ready as soon as it's opened and looking a ZIP code up allocates nothing.
+ * <p>
+ * Layout, all ints and floats big-endian:
+ * <code>
+ * header:  MAGIC, number of slots(10^ZIP code length), number of records, string pool offset
+ * slots:   an int per possible ZIP code, its record number + 1 or 0 if the ZIP code isn't indexed
+ * records: latitude(float), longitude(float), locality, county and street offsets in the string pool(int, -1 if none)
+ * pool:    each string once, as an unsigned short byte length followed by UTF-8 bytes
+ * </code>
+ * Reading is thread-safe: only absolute gets are done on the mapped buffer.
+ */
+public class ZipCoordinatesIndex {
+
+	private static final Logger LOGGER = Logger.getLogger(ZipCoordinatesIndex.class.getName());
+
+	/**
+	 * First bytes of an index file.
+	 */
+	private static final int MAGIC = 0x5A434931;
+
+	private static final int HEADER_SIZE = 16;
+
+	private static final int SLOT_SIZE = 4;
+
+	private static final int RECORD_SIZE = 20;
+
+	private static final int LATITUDE = 0;
+
+	private static final int LONGITUDE = 4;
+
+	private static final int LOCALITY = 8;
+
+	private static final int COUNTY = 12;
+
+	private static final int STREET = 16;
+
+	private final ByteBuffer buffer;
+
+	private final int slots;
+
+	private final int records;
+
+	private final int recordsOffset;
+
+	private final int poolOffset;
+
+
+	private ZipCoordinatesIndex(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a ZIP coordinates index file");
+		}
+		slots = buffer.getInt(4);
+		records = buffer.getInt(8);
+		poolOffset = buffer.getInt(12);
+		recordsOffset = HEADER_SIZE + slots * SLOT_SIZE;
+		if (recordsOffset + (long) records * RECORD_SIZE != poolOffset || poolOffset > buffer.capacity()) {
+			throw new IOException("Corrupted ZIP coordinates index file");
+		}
+	}
+
+	/**
+	 * Memory-map an index file.
+	 *
+	 * @param file index file written by export()
+	 * @return ZipCoordinatesIndex object
+	 * @throws IOException if the file couldn't be mapped or isn't an index file
+	 */
+	public static ZipCoordinatesIndex open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// The mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			return new ZipCoordinatesIndex(buffer);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Compile a results file into an index file.
+	 *
+	 * @param results results file
+	 * @param file index file
+	 * @param zipCodeLength number of digits of the ZIP codes
+	 * @throws IOException if something went wrong during read or write
+	 * @throws IllegalArgumentException if the ZIP codes have more than 8 digits
+	 */
+	public static void export(File results, File file, int zipCodeLength) throws IOException {
+		if (zipCodeLength < 1 || zipCodeLength > 8) {
+			throw new IllegalArgumentException("ZIP codes of " + zipCodeLength + " digits can't be indexed");
+		}
+		GeoInfoStore store = GeoInfoStore.load(results);
+		final int slots = (int) Math.pow(10, zipCodeLength);
+
+		// Records in ZIP code order, with their strings pooled
+		int[] slot = new int[slots];
+		ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(store.size() * RECORD_SIZE);
+		DataOutputStream recordsOut = new DataOutputStream(recordBytes);
+		Pool pool = new Pool();
+		int count = 0;
+		for (int zipCode = 0; zipCode < slots; zipCode++) {
+			final int i = store.indexOf(zipCode);
+			if (i < 0) {
+				continue;
+			}
+			slot[zipCode] = ++count;
+			recordsOut.writeFloat((float) store.getLatitude(i));
+			recordsOut.writeFloat((float) store.getLongitude(i));
+			recordsOut.writeInt(pool.offset(store.getLocality(i)));
+			recordsOut.writeInt(pool.offset(store.getCounty(i)));
+			recordsOut.writeInt(pool.offset(store.getStreet(i)));
+		}
+		if (count < store.size()) {
+			LOGGER.warning((store.size() - count) + " zip codes longer than " + zipCodeLength + " digits left out of the index.");
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(slots);
+			out.writeInt(count);
+			out.writeInt(HEADER_SIZE + slots * SLOT_SIZE + recordBytes.size());
+			for (int value : slot) {
+				out.writeInt(value);
+			}
+			recordBytes.writeTo(out);
+			pool.bytes.writeTo(out);
+		} finally {
+			out.close();
+		}
+		LOGGER.info("Exported " + count + " zip codes to " + file.getAbsolutePath());
+	}
+
+	/**
+	 * Find the record of a ZIP code.
+	 *
+	 * @param zipCode ZIP code
+	 * @return record number or -1 if the ZIP code isn't indexed
+	 */
+	public int find(int zipCode) {
+		if (zipCode < 0 || zipCode >= slots) {
+			return -1;
+		}
+		return buffer.getInt(HEADER_SIZE + zipCode * SLOT_SIZE) - 1;
+	}
+
+	/**
+	 * Get the number of indexed ZIP codes.
+	 *
+	 * @return number of records
+	 */
+	public int size() {
+		return records;
+	}
+
+	/**
+	 * Get the latitude of a record.
+	 *
+	 * @param record record number
+	 * @return latitude or NaN if there are no coordinates
+	 */
+	public float getLatitude(int record) {
+		return buffer.getFloat(recordsOffset + record * RECORD_SIZE + LATITUDE);
+	}
+
+	/**
+	 * Get the longitude of a record.
+	 *
+	 * @param record record number
+	 * @return longitude or NaN if there are no coordinates
+	 */
+	public float getLongitude(int record) {
+		return buffer.getFloat(recordsOffset + record * RECORD_SIZE + LONGITUDE);
+	}
+
+	/**
+	 * Get the locality of a record. Unlike the coordinates, this creates a string.
+	 *
+	 * @param record record number
+	 * @return locality name or null
+	 */
+	public String getLocality(int record) {
+		return string(buffer.getInt(recordsOffset + record * RECORD_SIZE + LOCALITY));
+	}
+
+	/**
+	 * Get the county of a record. Unlike the coordinates, this creates a string.
+	 *
+	 * @param record record number
+	 * @return county name or null
+	 */
+	public String getCounty(int record) {
+		return string(buffer.getInt(recordsOffset + record * RECORD_SIZE + COUNTY));
+	}
+
+	/**
+	 * Get the geocoded street of a record. Unlike the coordinates, this creates a string.
+	 *
+	 * @param record record number
+	 * @return street name or null if the locality has been geocoded
+	 */
+	public String getStreet(int record) {
+		return string(buffer.getInt(recordsOffset + record * RECORD_SIZE + STREET));
+	}
+
+	private String string(int offset) {
+		if (offset < 0) {
+			return null;
+		}
+		final int start = poolOffset + offset;
+		final byte[] bytes = new byte[buffer.getShort(start) & 0xFFFF];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(start + 2 + i);
+		}
+		return new String(bytes, Charsets.UTF_8);
+	}
+
+	/**
+	 * Collects the strings of the index, each once.
+	 */
+	private static class Pool {
+
+		private final Map<String, Integer> offsets = new HashMap<String, Integer>();
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		private final DataOutputStream out = new DataOutputStream(bytes);
+
+
+		public int offset(String str) throws IOException {
+			if (str == null) {
+				return -1;
+			}
+			Integer offset = offsets.get(str);
+			if (offset == null) {
+				byte[] encoded = str.getBytes(Charsets.UTF_8);
+				if (encoded.length > 0xFFFF) {
+					throw new IOException("Name too long for the index: " + str);
+				}
+				offset = bytes.size();
+				offsets.put(str, offset);
+				out.writeShort(encoded.length);
+				out.write(encoded);
+			}
+			return offset;
+		}
+	}
+}
@@ -0,0 +1,331 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
+
+/**
+ * Local source of ZIP code information, answering without going to Coduri Postale.
+ * <p>
+ * It's built from ZIP-GEO files, having semicolon separated rows of:
+ * <code>
+ * ZONA;COD_JUDET;Zip_code;COD_LOCALITATE;Localitate;Strada;...
+ * </code>
+ * In memory, all names are kept once in a string pool, while ZIP codes are kept in a sorted
+ * int array pointing to the county, locality and street ids of each ZIP code. The same
+ * layout is used when saving the index to disk.
+ */
+public class ZipGeoIndex {
+
+	private static final Logger LOGGER = Logger.getLogger(ZipGeoIndex.class.getName());
+
+	/**
+	 * Encoding of the ZIP-GEO files.
+	 */
+	public static final Charset ZIP_GEO_CHARSET = Charset.forName("windows-1250");
+
+	/**
+	 * First bytes of a saved index file.
+	 */
+	private static final int MAGIC = 0x5A474931;
+
+	/**
+	 * County names by their code in the ZIP-GEO files.
+	 */
+	private static final Map<String, String> COUNTIES = ImmutableMap.<String, String>builder()
+			.put("AB", "Alba").put("AR", "Arad").put("AG", "Arges").put("BC", "Bacau")
+			.put("BH", "Bihor").put("BN", "Bistrita-Nasaud").put("BT", "Botosani").put("BV", "Brasov")
+			.put("BR", "Braila").put("B", "Bucuresti").put("BZ", "Buzau").put("CS", "Caras-Severin")
+			.put("CL", "Calarasi").put("CJ", "Cluj").put("CT", "Constanta").put("CV", "Covasna")
+			.put("DB", "Dambovita").put("DJ", "Dolj").put("GL", "Galati").put("GR", "Giurgiu")
+			.put("GJ", "Gorj").put("HR", "Harghita").put("HD", "Hunedoara").put("IL", "Ialomita")
+			.put("IS", "Iasi").put("IF", "Ilfov").put("MM", "Maramures").put("MH", "Mehedinti")
+			.put("MS", "Mures").put("NT", "Neamt").put("OT", "Olt").put("PH", "Prahova")
+			.put("SM", "Satu Mare").put("SJ", "Salaj").put("SB", "Sibiu").put("SV", "Suceava")
+			.put("TR", "Teleorman").put("TM", "Timis").put("TL", "Tulcea").put("VS", "Vaslui")
+			.put("VL", "Valcea").put("VN", "Vrancea")
+			.build();
+
+	/**
+	 * County, locality and street names.
+	 */
+	private final String[] strings;
+
+	/**
+	 * Sorted ZIP codes.
+	 */
+	private final int[] zipCodes;
+
+	/**
+	 * Start of the ids of each ZIP code in data. The ids of zipCodes[i] are between
+	 * offsets[i] and offsets[i + 1].
+	 */
+	private final int[] offsets;
+
+	/**
+	 * For each ZIP code: county id, locality id and zero or more street ids.
+	 */
+	private final int[] data;
+
+
+	private ZipGeoIndex(String[] strings, int[] zipCodes, int[] offsets, int[] data) {
+		this.strings = strings;
+		this.zipCodes = zipCodes;
+		this.offsets = offsets;
+		this.data = data;
+	}
+
+	/**
+	 * Load the index from a list of files, each being either a ZIP-GEO file or an index saved with save().
+	 *
+	 * @param files ZIP-GEO or index files
+	 * @return ZipGeoIndex object
+	 * @throws IOException if any of the files couldn't be read
+	 */
+	public static ZipGeoIndex load(List<File> files) throws IOException {
+		Builder builder = new Builder();
+		for (File file : files) {
+			if (isSavedIndex(file)) {
+				builder.addAll(read(file));
+			} else {
+				builder.addZipGeoFile(file);
+			}
+		}
+
+		ZipGeoIndex index = builder.build();
+		LOGGER.info("Local index contains " + index.size() + " zip codes.");
+		return index;
+	}
+
+	/**
+	 * Get the information about a ZIP code.
+	 *
+	 * @param zipCode ZIP code
+	 * @return new GeoInfo object or null if the ZIP code isn't in the index
+	 */
+	public GeoInfo get(String zipCode) {
+		final int i = find(zipCode);
+		if (i < 0) {
+			return null;
+		}
+
+		GeoInfo g = new GeoInfo();
+		g.setCounty(strings[data[offsets[i]]]);
+		g.setLocality(strings[data[offsets[i] + 1]]);
+		for (int j = offsets[i] + 2; j < offsets[i + 1]; j++) {
+			g.addStreet(strings[data[j]]);
+		}
+		return g;
+	}
+
+	/**
+	 * Get number of ZIP codes in the index.
+	 *
+	 * @return number of ZIP codes
+	 */
+	public int size() {
+		return zipCodes.length;
+	}
+
+	/**
+	 * Save the index to disk in its compact form.
+	 *
+	 * @param file destination
+	 * @throws IOException if something went wrong during write
+	 */
+	public void save(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(strings.length);
+			for (String str : strings) {
+				out.writeUTF(str);
+			}
+			writeInts(out, zipCodes);
+			writeInts(out, offsets);
+			writeInts(out, data);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static ZipGeoIndex read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			in.readInt();
+			String[] strings = new String[in.readInt()];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = in.readUTF();
+			}
+			return new ZipGeoIndex(strings, readInts(in), readInts(in), readInts(in));
+		} finally {
+			in.close();
+		}
+	}
+
+	private static boolean isSavedIndex(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return file.length() >= 4 && in.readInt() == MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int[] values = new int[in.readInt()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readInt();
+		}
+		return values;
+	}
+
+	/**
+	 * Find the position of a ZIP code.
+	 *
+	 * @param zipCode ZIP code
+	 * @return position in zipCodes or a negative value if not found
+	 */
+	private int find(String zipCode) {
+		if (zipCode.isEmpty() || zipCode.length() > 9) {
+			return -1;
+		}
+		int value = 0;
+		for (int i = 0; i < zipCode.length(); i++) {
+			final char c = zipCode.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + c - '0';
+		}
+		return Arrays.binarySearch(zipCodes, value);
+	}
+
+	/**
+	 * Collects ZIP code rows and builds the compact index.
+	 */
+	private static class Builder {
+
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+		private final List<String> strings = new ArrayList<String>();
+
+		/**
+		 * Ids of each ZIP code: county, locality and streets.
+		 */
+		private final Map<Integer, List<Integer>> zipCodes = new TreeMap<Integer, List<Integer>>();
+
+
+		/**
+		 * Stream the rows of a ZIP-GEO file into the builder. Header and malformed rows are skipped.
+		 */
+		public void addZipGeoFile(File file) throws IOException {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ZIP_GEO_CHARSET));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split(";", -1);
+					if (fields.length < 6) {
+						continue;
+					}
+					Integer zipCode = Ints.tryParse(fields[2].trim());
+					String county = COUNTIES.get(fields[1].trim());
+					String locality = Main.translateToEnglish(fields[4].trim());
+					if (zipCode == null || county == null || locality.isEmpty()) {
+						continue;
+					}
+					add(zipCode, county, locality, Main.cleanupStreetName(Main.translateToEnglish(fields[5].trim())));
+				}
+			} finally {
+				reader.close();
+			}
+		}
+
+		/**
+		 * Add all ZIP codes of another index.
+		 */
+		public void addAll(ZipGeoIndex index) {
+			for (int i = 0; i < index.zipCodes.length; i++) {
+				final int start = index.offsets[i];
+				final String county = index.strings[index.data[start]];
+				final String locality = index.strings[index.data[start + 1]];
+				if (start + 2 == index.offsets[i + 1]) {
+					add(index.zipCodes[i], county, locality, "");
+				}
+				for (int j = start + 2; j < index.offsets[i + 1]; j++) {
+					add(index.zipCodes[i], county, locality, index.strings[index.data[j]]);
+				}
+			}
+		}
+
+		/**
+		 * Add a row. A ZIP code keeps the county and locality of its first row, while streets
+		 * of all its rows are collected.
+		 */
+		public void add(int zipCode, String county, String locality, String street) {
+			List<Integer> entry = zipCodes.get(zipCode);
+			if (entry == null) {
+				entry = new ArrayList<Integer>();
+				entry.add(intern(county));
+				entry.add(intern(locality));
+				zipCodes.put(zipCode, entry);
+			}
+			if (!street.isEmpty()) {
+				final int id = intern(street);
+				if (!entry.subList(2, entry.size()).contains(id)) {
+					entry.add(id);
+				}
+			}
+		}
+
+		public ZipGeoIndex build() {
+			int[] zips = new int[zipCodes.size()];
+			int[] offsets = new int[zipCodes.size() + 1];
+			List<Integer> data = new ArrayList<Integer>();
+
+			int i = 0;
+			for (Map.Entry<Integer, List<Integer>> entry : zipCodes.entrySet()) {
+				zips[i] = entry.getKey();
+				offsets[i] = data.size();
+				data.addAll(entry.getValue());
+				i++;
+			}
+			offsets[i] = data.size();
+
+			return new ZipGeoIndex(strings.toArray(new String[strings.size()]), zips, offsets, Ints.toArray(data));
+		}
+
+		private int intern(String str) {
+			Integer id = ids.get(str);
+			if (id == null) {
+				id = strings.size();
+				ids.put(str, id);
+				strings.add(str);
+			}
+			return id;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks that GeoInfoStore holds a million ZIP codes in a fraction of the memory of the GeoInfo
+ * objects it replaces.
+ */
+public class GeoInfoStoreTest {
+
+	private static final int ENTRIES = 1000000;
+
+	/**
+	 * Most memory the store may retain, relative to a List of GeoInfo.
+	 */
+	private static final double MAX_RATIO = 0.3;
+
+	private static final String[] COUNTIES = {"Arges", "Bihor", "Cluj", "Dolj", "Iasi", "Prahova", "Timis", "Valcea"};
+
+
+	@Test
+	public void roundTripsEntries() {
+		GeoInfoStore store = new GeoInfoStore();
+		for (int i = 0; i < 1000; i++) {
+			store.put(i, entry(i), i % 3 == 0 ? null : street(i));
+		}
+
+		GeoInfo g = store.get(123);
+		assertEquals(1000, store.size());
+		assertEquals(entry(123).getLatitude(), g.getLatitude());
+		assertEquals(entry(123).getLongitude(), g.getLongitude());
+		assertEquals(entry(123).getCounty(), g.getCounty());
+		assertEquals(entry(123).getLocality(), g.getLocality());
+		assertEquals(street(124), store.get(124).getStreets().get(0));
+	}
+
+	@Test
+	public void retainsAFractionOfAGeoInfoList() {
+		final long empty = usedAfterGc();
+		List<GeoInfo> list = new ArrayList<GeoInfo>();
+		for (int i = 0; i < ENTRIES; i++) {
+			GeoInfo g = entry(i);
+			g.addStreet(street(i));
+			list.add(g);
+		}
+		final long listBytes = usedAfterGc() - empty;
+		assertEquals(ENTRIES, list.size());
+		list = null;
+
+		final long emptyAgain = usedAfterGc();
+		GeoInfoStore store = new GeoInfoStore();
+		for (int i = 0; i < ENTRIES; i++) {
+			store.put(i, entry(i), street(i));
+		}
+		final long storeBytes = usedAfterGc() - emptyAgain;
+		assertEquals(ENTRIES, store.size());
+
+		assertTrue(String.format("Store retains %d bytes for a list's %d", storeBytes, listBytes),
+				storeBytes < listBytes * MAX_RATIO);
+	}
+
+	/**
+	 * Synthetic GeoInfo whose strings are all new, like the ones parsed from a results file.
+	 */
+	private static GeoInfo entry(int i) {
+		GeoInfo g = new GeoInfo();
+		g.setCounty(new String(COUNTIES[i % COUNTIES.length]));
+		g.setLocality("Localitatea " + (i % 10000));
+		g.setLatitude(String.format("%d.%07d", 43 + i % 5, i % 10000000));
+		g.setLongitude(String.format("%d.%07d", 21 + i % 8, (i * 7) % 10000000));
+		return g;
+	}
+
+	private static String street(int i) {
+		return "Strada " + (i % 50000);
+	}
+
+	/**
+	 * Get the heap in use once garbage collection has stopped freeing memory.
+	 */
+	private static long usedAfterGc() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 10; i++) {
+			System.gc();
+			final long now = runtime.totalMemory() - runtime.freeMemory();
+			if (now >= used) {
+				break;
+			}
+			used = now;
+		}
+		return used;
+	}
+}
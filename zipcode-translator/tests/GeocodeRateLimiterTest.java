@@ -0,0 +1,74 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Checks the daily budget of GeocodeRateLimiter and how it's kept in the quota file.
+ */
+public class GeocodeRateLimiterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+	@Test
+	public void dailyBudgetIsEnforced() throws Exception {
+		GeocodeRateLimiter rateLimiter = new GeocodeRateLimiter(1000, 2, quotaFile());
+		rateLimiter.acquire();
+		rateLimiter.acquire();
+		try {
+			rateLimiter.acquire();
+			fail("The daily budget should have been used up");
+		} catch (OverQueryLimitException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void closeRecordsTheExactQuota() throws Exception {
+		GeocodeRateLimiter rateLimiter = new GeocodeRateLimiter(1000, 1000, quotaFile());
+		for (int i = 0; i < 3; i++) {
+			rateLimiter.acquire();
+		}
+		rateLimiter.close();
+
+		assertEquals(997, new GeocodeRateLimiter(1000, 1000, quotaFile()).getRemaining());
+	}
+
+	@Test
+	public void crashOverstatesTheQuota() throws Exception {
+		GeocodeRateLimiter rateLimiter = new GeocodeRateLimiter(1000, 1000, quotaFile());
+		for (int i = 0; i < 3; i++) {
+			rateLimiter.acquire();
+		}
+		// Not closed: the reserved block counts as used
+		final int remaining = new GeocodeRateLimiter(1000, 1000, quotaFile()).getRemaining();
+
+		assertTrue("Remaining " + remaining, remaining < 997);
+	}
+
+	@Test
+	public void invalidQuotaFileIsIgnored() throws Exception {
+		GeocodeRateLimiter rateLimiter = new GeocodeRateLimiter(1000, 1000, quotaFile());
+		rateLimiter.acquire();
+		rateLimiter.close();
+		final String day = Files.toString(quotaFile(), Charsets.UTF_8).split(" ")[0];
+		Files.write(day + " x\n", quotaFile(), Charsets.UTF_8);
+
+		assertEquals(1000, new GeocodeRateLimiter(1000, 1000, quotaFile()).getRemaining());
+	}
+
+	private File quotaFile() throws IOException {
+		return new File(folder.getRoot(), "quota.txt");
+	}
+}
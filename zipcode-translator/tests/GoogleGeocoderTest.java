@@ -0,0 +1,124 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs GoogleGeocoder and its GeocodeRateLimiter against a GeocoderStandInServer answering with
+ * each of the documented statuses.
+ */
+public class GoogleGeocoderTest {
+
+	private static final int DAILY_BUDGET = 100;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private GeocoderStandInServer server;
+
+	private GeocodeRateLimiter rateLimiter;
+
+
+	@After
+	public void tearDown() {
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void okIsFoundWithCoordinates() throws IOException {
+		GeocodeResult result = geocoder(0, 0, 0, 0, 1000).geocode("Strada Egalitatii Pitesti");
+
+		assertTrue(result.isFound());
+		assertNotNull(result.getLatitude());
+		assertNotNull(result.getLongitude());
+		assertEquals(1, server.getQueries());
+		assertEquals(DAILY_BUDGET - 1, rateLimiter.getRemaining());
+	}
+
+	@Test
+	public void sequentialQueriesReuseTheConnection() throws IOException {
+		Geocoder geocoder = geocoder(0, 0, 0, 0, 1000);
+		final int queries = 50;
+		for (int i = 0; i < queries; i++) {
+			assertTrue(geocoder.geocode("Strada " + i + " Pitesti").isFound());
+		}
+
+		assertEquals(queries, server.getQueries());
+		// Kept alive, so a new connection is only opened if the JVM's cache dropped the idle one
+		assertTrue("Opened " + server.getConnections() + " connections for " + queries + " queries",
+				server.getConnections() <= 2);
+	}
+
+	@Test
+	public void zeroResultsIsDefinitiveNotFound() throws IOException {
+		GeocodeResult result = geocoder(0, 0, 1, 0, 1000).geocode("Nowhere Arges");
+
+		assertFalse(result.isFound());
+		assertTrue(result.isDefinitive());
+		assertEquals(1, server.getQueries());
+	}
+
+	@Test
+	public void serverErrorFailsWithoutRetry() throws IOException {
+		GeocodeResult result = geocoder(1, 0, 0, 0, 1000).geocode("Pitesti Arges");
+
+		assertFalse(result.isDefinitive());
+		assertEquals(1, server.getQueries());
+	}
+
+	@Test
+	public void overQueryLimitIsRetriedThenExhaustsTheQuota() throws IOException {
+		Geocoder geocoder = geocoder(0, 1, 0, 0, 1000);
+		try {
+			geocoder.geocode("Pitesti Arges");
+			fail("OVER_QUERY_LIMIT should have been thrown");
+		} catch (OverQueryLimitException e) {
+			// Expected
+		}
+
+		assertEquals(GoogleGeocoder.RETRIES + 1, server.getQueries());
+		assertEquals(0, rateLimiter.getRemaining());
+	}
+
+	@Test
+	public void stalledQueryTimesOutAfterRetries() throws IOException {
+		GeocodeResult result = geocoder(0, 0, 0, 1, 200).geocode("Pitesti Arges");
+
+		assertFalse(result.isDefinitive());
+		assertEquals(GoogleGeocoder.RETRIES + 1, server.getQueries());
+	}
+
+	/**
+	 * Start a stand-in answering with the given shares of statuses, the rest being OK.
+	 */
+	private Geocoder geocoder(double errorRate, double overQueryLimitRate, double zeroResultsRate, double stallRate,
+			int readTimeout) throws IOException {
+		final int port = freePort();
+		server = new GeocoderStandInServer(port, 0, errorRate, overQueryLimitRate, zeroResultsRate, stallRate);
+		server.start();
+		rateLimiter = new GeocodeRateLimiter(1000, DAILY_BUDGET, new File(folder.getRoot(), "quota.txt"), 1);
+		return new GoogleGeocoder("http://localhost:" + port + "/maps/api/geocode/xml", rateLimiter,
+				1000, readTimeout, 4);
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+}
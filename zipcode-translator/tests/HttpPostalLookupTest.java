@@ -0,0 +1,105 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Runs HttpPostalLookup against a PostalStandInServer replaying the pages recorded in
+ * tests/recordings: 110001 is valid, 999999 is invalid, 123456 is an error page with no results
+ * table, and any other ZIP code is answered with a 404.
+ */
+public class HttpPostalLookupTest {
+
+	private static final File RECORDINGS = new File("tests/recordings");
+
+	private PostalStandInServer server;
+
+
+	@After
+	public void tearDown() {
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void validZipCodeHasItsAddress() throws Exception {
+		GeoInfo g = lookup(0, 1000).lookup("110001");
+
+		assertEquals("Pitesti", g.getLocality());
+		assertEquals("Arges", g.getCounty());
+		assertEquals(1, g.getStreets().size());
+		assertEquals("Strada Egalitatii", g.getStreets().get(0).trim());
+		assertEquals(1, server.getQueries());
+	}
+
+	@Test
+	public void invalidZipCodeHasNoInformation() throws Exception {
+		assertNull(lookup(0, 1000).lookup("999999"));
+		assertEquals(1, server.getQueries());
+	}
+
+	@Test
+	public void malformedPageIsRetriedThenFails() throws Exception {
+		assertFailsAfterAttempts(lookup(0, 1000), "123456", 0);
+	}
+
+	@Test
+	public void missingPageIsRetriedThenFails() throws Exception {
+		assertFailsAfterAttempts(lookup(0, 1000), "100000", 0);
+	}
+
+	@Test
+	public void slowAnswerTimesOutThenFails() throws Exception {
+		assertFailsAfterAttempts(lookup(2000, 200), "110001", HttpPostalLookup.ATTEMPTS * 200);
+	}
+
+	/**
+	 * Check that a lookup fails after HttpPostalLookup.ATTEMPTS queries, backing off between them
+	 * but not after the last one.
+	 *
+	 * @param timeouts time(ms) the attempts spend waiting for answers that never come
+	 */
+	private void assertFailsAfterAttempts(PostalLookup postalLookup, String zipCode, long timeouts)
+			throws InterruptedException {
+		final long start = System.currentTimeMillis();
+		try {
+			postalLookup.lookup(zipCode);
+			fail("The lookup of " + zipCode + " should have failed");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		final long elapsed = System.currentTimeMillis() - start;
+
+		assertEquals(HttpPostalLookup.ATTEMPTS, server.getQueries());
+		// A single back-off, the next one being twice as long
+		assertTrue("Took " + elapsed + " ms", elapsed < Main.EXCEPTION_BACKOFF + timeouts + 300);
+	}
+
+	/**
+	 * Start a stand-in answering after the given latency(ms).
+	 */
+	private PostalLookup lookup(long latency, int readTimeout) throws IOException {
+		final int port = freePort();
+		server = new PostalStandInServer(port, RECORDINGS, latency);
+		server.start();
+		return new HttpPostalLookup("http://localhost:" + port + "/search?postalCode=" + HttpPostalLookup.ZIP_CODE,
+				1000, readTimeout);
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,170 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+/**
+ * Checks PageReadiness against a stub WebDriver whose search results change over time.
+ */
+public class PageReadinessTest {
+
+	private static final By RESULTS = By.id("searchResults");
+
+	private static final By TABLE = By.tagName("table");
+
+
+	@Test
+	public void awaitsNewResultsAndIdleAjax() {
+		StubPage page = new StubPage(100, 200);
+		WebElement element = new PageReadiness(5000).awaitResults(page.driver, RESULTS, TABLE, StubPage.OLD);
+
+		final long elapsed = page.elapsed();
+		assertEquals(StubPage.NEW, element.findElements(TABLE).get(0).getText());
+		assertTrue("Ready after " + elapsed + " ms", elapsed >= 200 && elapsed < 400);
+		assertTrue("AJAX checked " + page.scripts + " times", page.scripts > 1);
+	}
+
+	@Test
+	public void toleratesResultsReplacedWhileLookingAtThem() {
+		StubPage page = new StubPage(0, 0);
+		page.staleReads = 3;
+		WebElement element = new PageReadiness(5000).awaitResults(page.driver, RESULTS, TABLE, StubPage.OLD);
+
+		assertEquals(StubPage.NEW, element.findElements(TABLE).get(0).getText());
+		assertEquals(0, page.staleReads);
+	}
+
+	@Test
+	public void firstPollIsDelayedByHalfTheUsualWait() {
+		PageReadiness pageReadiness = new PageReadiness(5000);
+		StubPage slow = new StubPage(400, 0);
+		pageReadiness.awaitResults(slow.driver, RESULTS, TABLE, StubPage.OLD);
+		assertTrue("First poll after " + slow.firstPoll + " ms", slow.firstPoll < 50);
+
+		// Ready right away, but usually taking 400 ms, so not looked at before 200 ms
+		StubPage fast = new StubPage(0, 0);
+		pageReadiness.awaitResults(fast.driver, RESULTS, TABLE, StubPage.OLD);
+		assertTrue("First poll after " + fast.firstPoll + " ms", fast.firstPoll >= 180 && fast.firstPoll < 300);
+		assertEquals(1, fast.polls);
+	}
+
+	@Test
+	public void givesUpAtTheDeadlineWithoutSpinning() {
+		StubPage page = new StubPage(Long.MAX_VALUE / 2, 0);
+		try {
+			new PageReadiness(300).awaitResults(page.driver, RESULTS, TABLE, StubPage.OLD);
+			fail("The wait should have timed out");
+		} catch (TimeoutException e) {
+			// Expected
+		}
+
+		final long elapsed = page.elapsed();
+		assertTrue("Gave up after " + elapsed + " ms", elapsed >= 300 && elapsed < 500);
+		// Polled with growing intervals, not in a busy loop
+		assertTrue("Polled " + page.polls + " times", page.polls <= 15);
+	}
+
+	/**
+	 * Results page whose results turn from OLD to NEW after a delay, while a jQuery AJAX request
+	 * is pending up to another delay.
+	 */
+	private static class StubPage {
+
+		static final String OLD = "110001 Pitesti(Arges), Strada Egalitatii";
+
+		static final String NEW = "110002 Pitesti(Arges), Strada Craiovei";
+
+		final long start = System.currentTimeMillis();
+
+		final long resultsAt;
+
+		final long ajaxIdleAt;
+
+		/**
+		 * Number of reads of the results still to fail as if they had just been replaced.
+		 */
+		int staleReads;
+
+		int polls;
+
+		long firstPoll = -1;
+
+		int scripts;
+
+		final WebElement table = stub(WebElement.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("getText")) {
+					if (staleReads > 0) {
+						staleReads--;
+						throw new StaleElementReferenceException("Results replaced");
+					}
+					return elapsed() >= resultsAt ? NEW : OLD;
+				}
+				return unexpected(method);
+			}
+		});
+
+		final WebElement results = stub(WebElement.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("findElements") && TABLE.equals(args[0])) {
+					return Collections.singletonList(table);
+				}
+				return unexpected(method);
+			}
+		});
+
+		final WebDriver driver = (WebDriver) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{WebDriver.class, JavascriptExecutor.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("findElements") && RESULTS.equals(args[0])) {
+					if (polls++ == 0) {
+						firstPoll = elapsed();
+					}
+					return Collections.singletonList(results);
+				} else if (method.getName().equals("executeScript")) {
+					scripts++;
+					return elapsed() >= ajaxIdleAt;
+				}
+				return unexpected(method);
+			}
+		});
+
+
+		/**
+		 * @param resultsAt time(ms) after which the results are NEW
+		 * @param ajaxIdleAt time(ms) after which no AJAX request is pending
+		 */
+		StubPage(long resultsAt, long ajaxIdleAt) {
+			this.resultsAt = resultsAt;
+			this.ajaxIdleAt = ajaxIdleAt;
+		}
+
+		long elapsed() {
+			return System.currentTimeMillis() - start;
+		}
+
+		private static <T> T stub(Class<T> type, InvocationHandler handler) {
+			return type.cast(Proxy.newProxyInstance(PageReadinessTest.class.getClassLoader(), new Class<?>[]{type},
+					handler));
+		}
+
+		private static Object unexpected(Method method) {
+			throw new UnsupportedOperationException("Not stubbed: " + method.getName());
+		}
+	}
+}
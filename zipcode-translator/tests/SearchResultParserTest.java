@@ -0,0 +1,83 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Checks SearchResultParser against the regex it replaced, on fixed and random lines.
+ */
+public class SearchResultParserTest {
+
+	/**
+	 * Pattern getCountyLocalityAndStreets used before the parser.
+	 */
+	private static final Pattern REGEX = Pattern.compile("(.+)\\((.+)\\),(.+)?");
+
+	/**
+	 * Fragments the random lines are built from, with the chars the format depends on
+	 * over-represented.
+	 */
+	private static final String[] FRAGMENTS = {
+		"(", ")", ",", "),", ", ", " ", "\n", "\r", "\u2028", "Pitesti", "Arges", "Str. Egalitatii",
+		" nr. 3", " bl. A1", "x", "\u0219", "\u021A", "\u0103", "()", "((", "))",
+	};
+
+	private static final int FUZZ_LINES = 200000;
+
+
+	@Test
+	public void parsesTypicalLines() {
+		assertSameAsRegex("Pitesti(Arges), Strada Egalitatii nr. 12-20");
+		assertSameAsRegex("Pite\u0219ti(Arge\u0219),");
+		assertSameAsRegex("Bucuresti(Sectorul 1), Bulevardul Lascar Catargiu (fost Ana Ipatescu) bl. 3");
+		assertSameAsRegex("Mioveni(Arges), x");
+		assertSameAsRegex("no county here");
+		assertSameAsRegex("");
+	}
+
+	@Test
+	public void matchesRegexOnRandomLines() {
+		Random random = new Random(20121008);
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < FUZZ_LINES; i++) {
+			line.setLength(0);
+			final int fragments = random.nextInt(12);
+			for (int j = 0; j < fragments; j++) {
+				line.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+			}
+			assertSameAsRegex(line.toString());
+		}
+	}
+
+	private static void assertSameAsRegex(String text) {
+		GeoInfo expected = new GeoInfo();
+		final boolean expectedMatch = parseWithRegex(expected, text);
+		GeoInfo actual = new GeoInfo();
+		final boolean actualMatch = SearchResultParser.parse(actual, text);
+
+		final String message = "Line: \"" + text + "\"";
+		assertEquals(message, expectedMatch, actualMatch);
+		assertEquals(message, expected.getLocality(), actual.getLocality());
+		assertEquals(message, expected.getCounty(), actual.getCounty());
+		assertEquals(message, expected.getStreets(), actual.getStreets());
+	}
+
+	/**
+	 * Former getCountyLocalityAndStreets, with the street cleanup getSearchAddress used to apply.
+	 */
+	private static boolean parseWithRegex(GeoInfo g, String text) {
+		Matcher m = REGEX.matcher(Main.translateToEnglish(text));
+		if (!m.find()) {
+			return false;
+		}
+		g.setLocality(m.group(1));
+		g.setCounty(m.group(2));
+		if (m.group(3) != null && m.group(3).length() > 1) {
+			g.addStreet(Main.cleanupStreetName(m.group(3)));
+		}
+		return true;
+	}
+}
@@ -0,0 +1,49 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+/**
+ * Checks that SearchResultsHtmlParser hands the address cell over as the text a browser shows.
+ */
+public class SearchResultsHtmlParserTest {
+
+	@Test
+	public void resolvesCharacterReferences() throws IOException {
+		assertParsedAs("Pite\u0219ti(Arge\u0219), Strada Fra\u021Bii&Co",
+				"Pite&#x219;ti(Arge&#537;), Strada Fra&#x21B;ii&amp;Co");
+		assertParsedAs("Pitesti(Arges), Strada \"Unirii\"", "Pitesti(Arges),&nbsp;Strada &quot;Unirii&quot;");
+	}
+
+	@Test
+	public void keepsStrayAmpersands() throws IOException {
+		assertParsedAs("Pitesti(Arges), Strada A & B", "Pitesti(Arges), Strada A & B");
+		assertParsedAs("Pitesti(Arges), Strada A&B&C", "Pitesti(Arges), Strada A&B&C");
+		assertParsedAs("Pitesti(Arges), Strada &&A", "Pitesti(Arges), Strada &&amp;A");
+		assertParsedAs("Pitesti(Arges), Strada A&Bcdefghijklmno", "Pitesti(Arges), Strada A&Bcdefghijklmno");
+		assertParsedAs("Pitesti(Arges), Strada A&B", "Pitesti(Arges), Strada A&B<br>Strada C");
+		assertParsedAs("Pitesti(Arges), Strada A &", "Pitesti(Arges), Strada A &");
+	}
+
+	@Test
+	public void ignoresTheCellsAfterTheAddress() throws IOException {
+		GeoInfo g = SearchResultsHtmlParser.parse(new StringReader("<table><tr><th>Cod postal</th><th>Adresa</th>" +
+				"<th>Oficiu postal</th></tr><tr><td>110001</td><td>Pitesti(Arges), Strada Egalitatii</td>" +
+				"<td>OP Pitesti 1</td></tr></table>"));
+		assertEquals("Pitesti", g.getLocality());
+		assertEquals("Arges", g.getCounty());
+		assertEquals(1, g.getStreets().size());
+	}
+
+	private static void assertParsedAs(String text, String cell) throws IOException {
+		GeoInfo expected = new GeoInfo();
+		Main.getCountyLocalityAndStreets(expected, text);
+		GeoInfo actual = SearchResultsHtmlParser.parse(new StringReader(
+				"<table><tr><th>Cod postal</th><th>Adresa</th></tr><tr><td>110001</td><td>" + cell + "</td></tr></table>"));
+		assertEquals(expected.getLocality(), actual.getLocality());
+		assertEquals(expected.getCounty(), actual.getCounty());
+		assertEquals(expected.getStreets(), actual.getStreets());
+	}
+}